@@ -0,0 +1,277 @@
+package org.example.azw3reader.bench;
+
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+import org.example.azw3reader.core.Azw3Metadata;
+import org.example.azw3reader.core.Book;
+import org.example.azw3reader.core.BookGenerator;
+import org.example.azw3reader.core.TaskScheduler;
+import org.example.azw3reader.gui.BookReader;
+import org.example.azw3reader.gui.ThumbnailCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+// End to end latency of the reader, from the call that turns the page to the
+// first layout pulse that shows the new images at full resolution. Opening
+// is also measured up to the first paint, when the scaled up embedded
+// thumbnail is on screen. Meant to run headless on
+// Monocle, see the pageTurnBenchmark task. Writes a JSON report so runs of
+// different builds can be compared.
+public class PageTurnBenchmark {
+    private static final int SCENE_WIDTH = 1600;
+    private static final int SCENE_HEIGHT = 1000;
+    private static final int WARMUP_TURNS = 20;
+    private static final int REVERSALS = 40;
+    private static final int ZOOM_STEPS = 40;
+    private static final int JUMPS = 40;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final Map<String, List<Long>> samples = new LinkedHashMap<>();
+    private Stage stage;
+    private Scene scene;
+    private HBox container;
+    private BookReader reader;
+    private final TaskScheduler scheduler = new TaskScheduler(3, Math.max(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    public static void main(String[] args) throws Exception {
+        Path report = Path.of(args.length > 0 ? args[0] : "page-turn.json");
+        int pageCount = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 1200;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : 1800;
+
+        File file = Files.createTempFile("page-turn-benchmark", ".azw3").toFile();
+        file.deleteOnExit();
+        BookGenerator.generate(file, "Page turn benchmark", pageCount, width, height);
+
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+
+        PageTurnBenchmark benchmark = new PageTurnBenchmark();
+        try {
+            benchmark.run(file, pageCount);
+        } finally {
+            Platform.exit();
+        }
+
+        Files.createDirectories(report.toAbsolutePath().getParent());
+        Files.writeString(report, benchmark.report(file, pageCount, width, height), StandardCharsets.UTF_8);
+        System.out.println("Page turn benchmark report written to " + report.toAbsolutePath());
+    }
+
+    private void run(File file, int pageCount) throws Exception {
+        Book book = new Book(file, Azw3Metadata.of(file));
+        onFx(() -> {
+            this.stage = new Stage();
+            this.stage.setTitle("Benchmark");
+            this.container = new HBox();
+            this.scene = new Scene(this.container, SCENE_WIDTH, SCENE_HEIGHT);
+            this.stage.setScene(this.scene);
+            this.stage.show();
+        });
+
+        ThumbnailCache thumbnails = new ThumbnailCache(book, this.scheduler);
+        record("firstPaint", this::hasImages, () -> {
+            this.reader = new BookReader(this.container, book, this.scheduler, thumbnails);
+            this.container.getChildren().add(this.reader);
+        });
+        // its queued prefetch and cover tickets must not run during the next measurements
+        onFx(() -> {
+            this.reader.close();
+            this.container.getChildren().clear();
+        });
+        this.reader = null;
+        record("open", () -> {
+            this.reader = new BookReader(this.container, book, this.scheduler, thumbnails);
+            this.container.getChildren().add(this.reader);
+        });
+
+        for (int i = 0; i < WARMUP_TURNS; i++) {
+            measure(this.reader::next);
+        }
+        onFx(() -> this.reader.goTo(0));
+
+        for (int i = 0; i < pageCount / 2 + 1; i++) {
+            record("next", this.reader::next);
+        }
+        for (int i = 0; i < pageCount / 2 + 1; i++) {
+            record("previous", this.reader::previous);
+        }
+
+        onFx(() -> this.reader.goTo(pageCount / 2));
+        for (int i = 0; i < REVERSALS; i++) {
+            record("reversal", i % 2 == 0 ? this.reader::next : this.reader::previous);
+        }
+
+        for (int i = 0; i < ZOOM_STEPS; i++) {
+            double delta = i < ZOOM_STEPS / 2 ? -40 : 40;
+            record("zoom", () -> scroll(delta));
+        }
+
+        Random random = new Random(pageCount);
+        for (int i = 0; i < JUMPS; i++) {
+            int page = random.nextInt(pageCount);
+            record("jump", () -> this.reader.goTo(page));
+        }
+
+        onFx(() -> {
+            this.reader.close();
+            this.stage.close();
+        });
+    }
+
+    // same event the mouse wheel produces over the first page
+    private void scroll(double delta) {
+        ImageView view = (ImageView)this.reader.getChildren().getFirst();
+        double x = view.getBoundsInLocal().getWidth() / 2;
+        double y = view.getBoundsInLocal().getHeight() / 2;
+        view.fireEvent(new ScrollEvent(
+                ScrollEvent.SCROLL,
+                x, y, x, y,
+                false, false, false, false,
+                false, false,
+                0, delta, 0, delta,
+                ScrollEvent.HorizontalTextScrollUnits.NONE, 0,
+                ScrollEvent.VerticalTextScrollUnits.NONE, 0,
+                0, null
+        ));
+    }
+
+    private void record(String operation, Runnable action) throws InterruptedException {
+        record(operation, this::isSettled, action);
+    }
+
+    private void record(String operation, BooleanSupplier done, Runnable action) throws InterruptedException {
+        long elapsed = measure(done, action);
+        this.samples.computeIfAbsent(operation, _ -> new ArrayList<>()).add(elapsed);
+    }
+
+    private long measure(Runnable action) throws InterruptedException {
+        return measure(this::isSettled, action);
+    }
+
+    // runs the action on the FX thread and waits for the first layout pulse after which done holds
+    private long measure(BooleanSupplier done, Runnable action) throws InterruptedException {
+        CountDownLatch laidOut = new CountDownLatch(1);
+        long[] elapsed = new long[1];
+        Platform.runLater(() -> {
+            long start = System.nanoTime();
+            action.run();
+            Runnable[] listener = new Runnable[1];
+            listener[0] = () -> {
+                if (!done.getAsBoolean()) {
+                    Platform.requestNextPulse();
+                    return;
+                }
+                elapsed[0] = System.nanoTime() - start;
+                // the listener list is being iterated right now
+                Platform.runLater(() -> this.scene.removePostLayoutPulseListener(listener[0]));
+                laidOut.countDown();
+            };
+            this.scene.addPostLayoutPulseListener(listener[0]);
+            Platform.requestNextPulse();
+        });
+        if (!laidOut.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Page was not laid out within " + TIMEOUT_SECONDS + " seconds");
+        }
+        return elapsed[0];
+    }
+
+    // every page on screen at full resolution
+    private boolean isSettled() {
+        return hasImages() && this.reader.isFullyLoaded();
+    }
+
+    // something other than a blank window, previews count
+    private boolean hasImages() {
+        if (this.reader == null) {
+            return false;
+        }
+        for (Node child : this.reader.getChildren()) {
+            if (child instanceof ImageView view) {
+                Image image = view.getImage();
+                if (image == null || image.getProgress() < 1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void onFx(Runnable action) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            try {
+                action.run();
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private String report(File file, int pageCount, int width, int height) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"benchmark\": \"page-turn\",\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"javafx\": \"").append(System.getProperty("javafx.runtime.version")).append("\",\n");
+        json.append("  \"os\": \"").append(System.getProperty("os.name")).append(' ')
+                .append(System.getProperty("os.arch")).append("\",\n");
+        json.append("  \"book\": {\"pages\": ").append(pageCount)
+                .append(", \"width\": ").append(width)
+                .append(", \"height\": ").append(height)
+                .append(", \"bytes\": ").append(Files.size(file.toPath())).append("},\n");
+        json.append("  \"operations\": {\n");
+        int remaining = this.samples.size();
+        for (Map.Entry<String, List<Long>> entry : this.samples.entrySet()) {
+            long[] nanos = entry.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+            json.append("    \"").append(entry.getKey()).append("\": {")
+                    .append("\"count\": ").append(nanos.length)
+                    .append(", \"meanMs\": ").append(millis((long)Arrays.stream(nanos).average().orElse(0)))
+                    .append(", \"p50Ms\": ").append(millis(percentile(nanos, 0.50)))
+                    .append(", \"p90Ms\": ").append(millis(percentile(nanos, 0.90)))
+                    .append(", \"p99Ms\": ").append(millis(percentile(nanos, 0.99)))
+                    .append(", \"maxMs\": ").append(millis(nanos[nanos.length - 1]))
+                    .append(", \"samplesMs\": [");
+            for (int i = 0; i < nanos.length; i++) {
+                json.append(i == 0 ? "" : ", ").append(millis(nanos[i]));
+            }
+            json.append("]}").append(--remaining > 0 ? ",\n" : "\n");
+        }
+        json.append("  }\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int)Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+}
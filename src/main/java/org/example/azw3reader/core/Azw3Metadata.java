@@ -6,15 +6,22 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
+// Headers of a MOBI/KF8 book. Hybrid files carry a legacy MOBI 6 book in
+// front of the KF8 one, EXTH 121 points behind the BOUNDARY record that
+// separates them. Only the KF8 headers of such files are kept, and the record
+// indices they hold are made absolute so readers never look at the legacy half.
 public class Azw3Metadata {
     private static final Logger log = LoggerFactory.getLogger(Azw3Metadata.class);
+    private static final int KF8_BOUNDARY_RECORD = 121;
+    private static final int NULL_INDEX = 0xFFFFFFFF;
 
     public record PalmDatabaseRecord(
-            int offset,
+            long offset,
             boolean isSecret,
             boolean inUse,
             boolean isDirty,
@@ -64,7 +71,8 @@ public class Azw3Metadata {
             int firstImageIndex,
             boolean hasEXTHHeader,
             int firstContentIndex,
-            int lastContentIndex
+            int lastContentIndex,
+            int extraRecordDataFlags
     ){}
 
     public record EXTHRecord(
@@ -80,18 +88,28 @@ public class Azw3Metadata {
             List<EXTHRecord> records
     ){}
 
+    // the three headers at the start of a header record
+    private record Headers(
+            PalmDocHeader palmDocHeader,
+            MobiHeader mobiHeader,
+            EXTHHeader exthHeader
+    ){}
+
     private final PalmDatabaseHeader palmDatabaseHeader;
+    private final int headerRecord;
     private final PalmDocHeader palmDocHeader;
     private final MobiHeader mobiHeader;
     private final EXTHHeader exthHeader;
 
     private Azw3Metadata(
             PalmDatabaseHeader palmDatabaseHeader,
+            int headerRecord,
             PalmDocHeader palmDocHeader,
             MobiHeader mobiHeader,
             EXTHHeader exthHeader
     ) {
         this.palmDatabaseHeader = palmDatabaseHeader;
+        this.headerRecord = headerRecord;
         this.palmDocHeader = palmDocHeader;
         this.mobiHeader = mobiHeader;
         this.exthHeader = exthHeader;
@@ -100,25 +118,110 @@ public class Azw3Metadata {
     public static Azw3Metadata of(File file) throws IOException {
         try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
             PalmDatabaseHeader pdh = readPalmDatabaseHeader(raf);
-            long zeroRecordOffset = Integer.toUnsignedLong(pdh.records().getFirst().offset);
-            raf.seek(zeroRecordOffset);
-            PalmDocHeader pdo = readPalmDocHeader(raf);
-            long mobiHeaderOffset = raf.getFilePointer();
-            MobiHeader mobih = readMobiHeader(raf);
-            EXTHHeader exthh = null;
-            if(mobih.hasEXTHHeader()) {
-                long headerLen = Integer.toUnsignedLong(mobih.headerLen());
-                long exthHeaderOffset = mobiHeaderOffset + headerLen;
-                raf.seek(exthHeaderOffset);
-                exthh = readEXTHHeader(raf);
+            Headers headers = readHeaders(raf, pdh.records().getFirst().offset());
+            int boundary = kf8Boundary(raf, pdh, headers.exthHeader());
+            if (boundary <= 0) {
+                return new Azw3Metadata(pdh, 0, headers.palmDocHeader(), headers.mobiHeader(), headers.exthHeader());
             }
-            return new Azw3Metadata(pdh, pdo, mobih, exthh);
+            // hybrid file, of the legacy headers only the first image is kept, in case the images are shared
+            int legacyFirstImageIndex = headers.mobiHeader().firstImageIndex();
+            Headers kf8 = readHeaders(raf, pdh.records().get(boundary).offset());
+            int firstImageIndex = kf8.mobiHeader().firstImageIndex();
+            firstImageIndex = firstImageIndex != NULL_INDEX && isImageRecord(raf, pdh, boundary + firstImageIndex)
+                    ? boundary + firstImageIndex
+                    : legacyFirstImageIndex;
+            MobiHeader mobih = rebase(kf8.mobiHeader(), boundary, firstImageIndex);
+            return new Azw3Metadata(pdh, boundary, kf8.palmDocHeader(), mobih, kf8.exthHeader());
         } catch (IOException ex) {
             log.error(ex.getMessage());
             throw ex;
         }
     }
 
+    private static Headers readHeaders(RandomAccessFile raf, long recordOffset) throws IOException {
+        raf.seek(recordOffset);
+        PalmDocHeader pdo = readPalmDocHeader(raf);
+        long mobiHeaderOffset = raf.getFilePointer();
+        MobiHeader mobih = readMobiHeader(raf);
+        EXTHHeader exthh = null;
+        if(mobih.hasEXTHHeader()) {
+            long headerLen = Integer.toUnsignedLong(mobih.headerLen());
+            long exthHeaderOffset = mobiHeaderOffset + headerLen;
+            raf.seek(exthHeaderOffset);
+            exthh = readEXTHHeader(raf);
+        }
+        return new Headers(pdo, mobih, exthh);
+    }
+
+    // index of the KF8 header record of a hybrid file, 0 when the file holds a single book
+    private static int kf8Boundary(RandomAccessFile raf, PalmDatabaseHeader pdh, EXTHHeader exthh) throws IOException {
+        if (exthh == null) {
+            return 0;
+        }
+        for (EXTHRecord record : exthh.records()) {
+            if (record.recordType() != KF8_BOUNDARY_RECORD || record.recordData().length < 4) {
+                continue;
+            }
+            int boundary = ByteBuffer.wrap(record.recordData()).getInt();
+            if (boundary == NULL_INDEX) {
+                return 0;
+            }
+            if (boundary < 2 || boundary >= pdh.recordsNumber()) {
+                log.warn("KF8 boundary {} is outside of the {} records", boundary, pdh.recordsNumber());
+                return 0;
+            }
+            byte[] buf = new byte[8];
+            raf.seek(pdh.records().get(boundary - 1).offset());
+            raf.readFully(buf);
+            if (!new String(buf, StandardCharsets.US_ASCII).equals("BOUNDARY")) {
+                log.warn("No BOUNDARY record in front of KF8 record {}", boundary);
+                return 0;
+            }
+            return boundary;
+        }
+        return 0;
+    }
+
+    private static boolean isImageRecord(RandomAccessFile raf, PalmDatabaseHeader pdh, int index) throws IOException {
+        if (index < 0 || index + 1 >= pdh.recordsNumber()) {
+            return false;
+        }
+        byte[] buf = new byte[4];
+        raf.seek(pdh.records().get(index).offset());
+        raf.readFully(buf);
+        boolean jpeg = (buf[0] & 0xFF) == 0xFF && (buf[1] & 0xFF) == 0xD8;
+        boolean png = (buf[0] & 0xFF) == 0x89 && buf[1] == 'P' && buf[2] == 'N' && buf[3] == 'G';
+        boolean gif = buf[0] == 'G' && buf[1] == 'I' && buf[2] == 'F';
+        return jpeg || png || gif;
+    }
+
+    // KF8 record indices count from the KF8 header record
+    private static MobiHeader rebase(MobiHeader mobih, int boundary, int firstImageIndex) {
+        int firstRecordNumber = mobih.firstRecordNumber() == NULL_INDEX
+                ? NULL_INDEX
+                : mobih.firstRecordNumber() + boundary;
+        // KF8 keeps the index of the FDST record in the two content index fields
+        int fdstIndex = mobih.firstContentIndex() << 16 | mobih.lastContentIndex();
+        if (fdstIndex != NULL_INDEX) {
+            fdstIndex += boundary;
+        }
+        return new MobiHeader(
+                mobih.identifier(),
+                mobih.headerLen(),
+                mobih.mobiType(),
+                mobih.encoding(),
+                firstRecordNumber,
+                mobih.fullNameOffset(),
+                mobih.fullNameLength(),
+                mobih.locale(),
+                firstImageIndex,
+                mobih.hasEXTHHeader(),
+                fdstIndex >>> 16,
+                fdstIndex & 0xFFFF,
+                mobih.extraRecordDataFlags()
+        );
+    }
+
     private static PalmDatabaseHeader readPalmDatabaseHeader(RandomAccessFile raf) throws IOException {
         // offset 0, size 32 bytes = Palm database name
         byte[] buf = new byte[32];
@@ -174,13 +277,13 @@ public class Azw3Metadata {
         }
 
         // offset 76, size 2 = number of records
-        short recordsNumber = raf.readShort();
+        int recordsNumber = raf.readUnsignedShort();
 
         List<PalmDatabaseRecord> records = new ArrayList<>(recordsNumber);
 
         for (int i = 0; i < recordsNumber; i++) {
-            // size 4 = record offset
-            int offset = raf.readInt();
+            // size 4 = record offset, unsigned so books up to 4 GB can be addressed
+            long offset = Integer.toUnsignedLong(raf.readInt());
 
             // size 1 = record attributes
             byte attributes = raf.readByte();
@@ -276,6 +379,13 @@ public class Azw3Metadata {
         int firstContentIndex = raf.readUnsignedShort();
         int lastContentIndex = raf.readUnsignedShort();
 
+        // trailing entries appended to every text record, only in headers long enough to hold them
+        int extraRecordDataFlags = 0;
+        if (headerLen >= 0xE4) {
+            raf.skipBytes(46);
+            extraRecordDataFlags = raf.readUnsignedShort();
+        }
+
         return new MobiHeader(
                 identifier,
                 headerLen,
@@ -288,7 +398,8 @@ public class Azw3Metadata {
                 firstImageIndex,
                 hasEXTHHeader,
                 firstContentIndex,
-                lastContentIndex
+                lastContentIndex,
+                extraRecordDataFlags
         );
     }
 
@@ -319,6 +430,11 @@ public class Azw3Metadata {
         return palmDatabaseHeader;
     }
 
+    // record holding the PalmDOC, MOBI and EXTH headers, the text records follow it
+    public int getHeaderRecord() {
+        return headerRecord;
+    }
+
     public PalmDocHeader getPalmDocHeader() {
         return palmDocHeader;
     }
@@ -1,6 +1,8 @@
 package org.example.azw3reader.core;
 
+import javafx.geometry.Dimension2D;
 import javafx.scene.image.Image;
+import org.example.azw3reader.utils.ImageUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,19 +11,36 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Optional;
 
-public class Book {
+public class Book implements PageSource {
     private static final Logger log = LoggerFactory.getLogger(Book.class);
+    // enough to reach the frame header of a JPEG even behind a large EXIF block
+    private static final int PAGE_HEADER_PROBE_SIZE = 64 * 1024;
     private final File file;
     private final Azw3Metadata metadata;
     private final int pageCount;
+    private final boolean mapFile;
+    // mapped on the first record read, books that are only listed never map their file
+    private SegmentedFile mapped;
+    // used instead of the mapping by books that are read once, closed with the book
+    private FileChannel channel;
+    private boolean closed;
 
     public Book(File file, Azw3Metadata metadata) {
+        this(file, metadata, true);
+    }
+
+    // a book that is only scanned or fingerprinted is not mapped, a mapping
+    // outlives close until the next GC and keeps the file locked on Windows
+    public Book(File file, Azw3Metadata metadata, boolean mapFile) {
         this.file = file;
         this.metadata = metadata;
+        this.mapFile = mapFile;
 
         int thumbIndex = getThumbnailIndex();
         int coverIndex = getCoverIndex();
@@ -36,8 +55,9 @@ public class Book {
         this.pageCount = count;
     }
 
+    @Override
     public String getTitle() {
-        int zeroRecordOffset = metadata.getPalmDatabaseHeader().records().getFirst().offset();
+        long headerRecordOffset = metadata.getPalmDatabaseHeader().records().get(metadata.getHeaderRecord()).offset();
         int fullNameOffset = metadata.getMobiHeader().fullNameOffset();
         int fullNameLen = metadata.getMobiHeader().fullNameLength();
         if (fullNameLen <= 0) {
@@ -45,7 +65,7 @@ public class Book {
         }
         try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
             byte[] buf = new byte[fullNameLen];
-            int offset = zeroRecordOffset + fullNameOffset;
+            long offset = headerRecordOffset + Integer.toUnsignedLong(fullNameOffset);
             raf.seek(offset);
             raf.readFully(buf);
             return new String(buf, StandardCharsets.UTF_8);
@@ -55,60 +75,117 @@ public class Book {
         }
     }
 
-    public Image getPage(int index) {
+    @Override
+    public byte[] getPageBytes(int index) {
         if (index < 0 || index >= pageCount) {
             return null;
         }
         int firstImageIndex = metadata.getMobiHeader().firstImageIndex();
-        int imageIndex = firstImageIndex + index;
-        int imageOffset = metadata
-                .getPalmDatabaseHeader()
-                .records()
-                .get(imageIndex)
-                .offset();
-        int nextRecordOffset = metadata
-                .getPalmDatabaseHeader()
-                .records()
-                .get(imageIndex + 1)
-                .offset();
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            int len = nextRecordOffset - imageOffset;
-            byte[] buf = new byte[len];
-            raf.seek(imageOffset);
-            raf.readFully(buf);
-            return new Image(new ByteArrayInputStream(buf));
-        } catch (IOException ex) {
-            log.error("Could not read book file: ", ex);
-            throw new RuntimeException(ex);
+        return readRecord(firstImageIndex + index, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Dimension2D getPageSize(int index) {
+        if (index < 0 || index >= pageCount) {
+            return null;
         }
+        int firstImageIndex = metadata.getMobiHeader().firstImageIndex();
+        return ImageUtils.probeSize(readRecord(firstImageIndex + index, PAGE_HEADER_PROBE_SIZE));
     }
 
+    @Override
     public Image getCover() {
+        return new Image(new ByteArrayInputStream(getCoverBytes()));
+    }
+
+    @Override
+    public byte[] getCoverBytes() {
         int coverIndex = this.getCoverIndex();
         int firstImageIndex = metadata.getMobiHeader().firstImageIndex();
-        int imageIndex = firstImageIndex + coverIndex;
-        int imageOffset = metadata
-                .getPalmDatabaseHeader()
-                .records()
-                .get(imageIndex)
-                .offset();
-        int nextRecordOffset = metadata
-                .getPalmDatabaseHeader()
-                .records()
-                .get(imageIndex + 1)
-                .offset();
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            int len = nextRecordOffset - imageOffset;
-            byte[] buf = new byte[len];
-            raf.seek(imageOffset);
-            raf.readFully(buf);
-            return new Image(new ByteArrayInputStream(buf));
+        return readRecord(firstImageIndex + coverIndex, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Image getCoverThumbnail() {
+        int thumbnailIndex = this.getThumbnailIndex();
+        if (thumbnailIndex < 0) {
+            return null;
+        }
+        int firstImageIndex = metadata.getMobiHeader().firstImageIndex();
+        if (firstImageIndex + thumbnailIndex + 1 >= metadata.getPalmDatabaseHeader().records().size()) {
+            return null;
+        }
+        byte[] buf = readRecord(firstImageIndex + thumbnailIndex, Integer.MAX_VALUE);
+        Image thumbnail = new Image(new ByteArrayInputStream(buf));
+        return thumbnail.isError() ? null : thumbnail;
+    }
+
+    // at most maxLen bytes from the start of the record
+    private byte[] readRecord(int recordIndex, int maxLen) {
+        List<Azw3Metadata.PalmDatabaseRecord> records = metadata.getPalmDatabaseHeader().records();
+        long recordOffset = records.get(recordIndex).offset();
+        long nextRecordOffset = records.get(recordIndex + 1).offset();
+        long len = Math.min(nextRecordOffset - recordOffset, maxLen);
+        if (len < 0 || len > Integer.MAX_VALUE - 8) {
+            throw new RuntimeException("Record " + recordIndex + " has an invalid length of " + len + " bytes");
+        }
+        try {
+            if (this.mapFile) {
+                return mapped().read(recordOffset, (int)len);
+            }
+            ByteBuffer buf = ByteBuffer.allocate((int)len);
+            FileChannel channel = channel();
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, recordOffset + buf.position()) < 0) {
+                    throw new IOException("Record " + recordIndex + " runs past the end of " + this.file);
+                }
+            }
+            return buf.array();
         } catch (IOException ex) {
             log.error("Could not read book file: ", ex);
             throw new RuntimeException(ex);
         }
     }
 
+    private synchronized SegmentedFile mapped() throws IOException {
+        if (this.closed) {
+            throw new IOException(this.file + " is closed");
+        }
+        if (this.mapped == null) {
+            this.mapped = new SegmentedFile(this.file);
+        }
+        return this.mapped;
+    }
+
+    // positional reads are safe to share, as long as no reader is interrupted
+    private synchronized FileChannel channel() throws IOException {
+        if (this.closed) {
+            throw new IOException(this.file + " is closed");
+        }
+        if (this.channel == null) {
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+        }
+        return this.channel;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.mapped != null) {
+            this.mapped.close();
+            this.mapped = null;
+        }
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException ex) {
+                log.error("Could not close book file: ", ex);
+            }
+            this.channel = null;
+        }
+    }
+
+    @Override
     public boolean leftToRight() {
         List<Azw3Metadata.EXTHRecord> records = this.metadata.getExthHeader().records();
         Optional<Azw3Metadata.EXTHRecord> record = records.stream().filter(r -> r.recordType() == 527 || r.recordType() == 525).findFirst();
@@ -119,6 +196,11 @@ public class Book {
         return !writingMode.equals("rtl") && !writingMode.equals("horizontal-rl");
     }
 
+    @Override
+    public boolean hasSeparateCover() {
+        return getCoverIndex() > 0;
+    }
+
     public int getCoverIndex() {
         List<Azw3Metadata.EXTHRecord> records = this.metadata.getExthHeader().records();
         Optional<Azw3Metadata.EXTHRecord> coverRecord = records.stream()
@@ -143,6 +225,16 @@ public class Book {
         return thumbRecord.map(exthRecord -> ByteBuffer.wrap(exthRecord.recordData()).getInt()).orElse(-1);
     }
 
+    public Azw3Metadata getMetadata() {
+        return this.metadata;
+    }
+
+    @Override
+    public File getFile() {
+        return this.file;
+    }
+
+    @Override
     public int getPageCount() {
         return this.pageCount;
     }
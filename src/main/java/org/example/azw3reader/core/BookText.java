@@ -0,0 +1,467 @@
+package org.example.azw3reader.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Plain text of a reflowable book, split into paragraphs. Positions are
+// character offsets into the concatenated paragraphs and stay valid whatever
+// the page layout is.
+//
+// Opening only reads the record table, the text records are decompressed and
+// parsed a batch at a time from the start of the book, so a reader can show
+// the first pages of a long book without waiting for the rest. Paragraphs are
+// only ever appended, positions decoded once never move.
+public class BookText {
+    private static final Logger log = LoggerFactory.getLogger(BookText.class);
+    private static final int NO_COMPRESSION = 1;
+    private static final int PALMDOC_COMPRESSION = 2;
+    private static final int HUFF_CDIC_COMPRESSION = 17480;
+    private static final int UTF8_ENCODING = 65001;
+    // an entity longer than this is not one
+    private static final int MAX_ENTITY_LENGTH = 10;
+    private static final Set<String> BLOCK_TAGS = Set.of(
+            "p", "div", "br", "h1", "h2", "h3", "h4", "h5", "h6", "li", "blockquote", "tr", "section", "hr"
+    );
+    private static final Set<String> SKIPPED_TAGS = Set.of("head", "style", "script");
+
+    private final File file;
+    private final List<Azw3Metadata.PalmDatabaseRecord> records;
+    private final int compression;
+    private final int extraRecordDataFlags;
+    private final int endRecord;
+    private final int flowEnd;
+    private final long totalBytes;
+    private final CharsetDecoder decoder;
+    // where decoding stopped, only used by the thread holding the decoder
+    private int nextRecord;
+    private byte[] undecoded = new byte[0];
+    private String unparsed = "";
+    private final StringBuilder current = new StringBuilder();
+    private String skipping;
+
+    private final List<String> paragraphs = new ArrayList<>();
+    private int[] starts = new int[64];
+    private int length;
+    // HTML bytes behind the paragraphs, only written by the thread holding the decoder
+    private long decodedBytes;
+    private volatile boolean complete;
+
+    private BookText(
+            File file,
+            List<Azw3Metadata.PalmDatabaseRecord> records,
+            int compression,
+            int extraRecordDataFlags,
+            int firstRecord,
+            int endRecord,
+            int flowEnd,
+            long totalBytes,
+            Charset charset
+    ) {
+        this.file = file;
+        this.records = records;
+        this.compression = compression;
+        this.extraRecordDataFlags = extraRecordDataFlags;
+        this.nextRecord = firstRecord;
+        this.endRecord = endRecord;
+        this.flowEnd = flowEnd;
+        this.totalBytes = totalBytes;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    // the whole text, decoded before it is returned
+    public static BookText of(Book book) throws IOException {
+        BookText text = open(book);
+        text.decode(Integer.MAX_VALUE);
+        return text;
+    }
+
+    // the text with nothing decoded yet, see decode
+    public static BookText open(Book book) throws IOException {
+        Azw3Metadata metadata = book.getMetadata();
+        Azw3Metadata.PalmDocHeader palmDocHeader = metadata.getPalmDocHeader();
+        Azw3Metadata.MobiHeader mobiHeader = metadata.getMobiHeader();
+        List<Azw3Metadata.PalmDatabaseRecord> records = metadata.getPalmDatabaseHeader().records();
+        int compression = palmDocHeader.compression();
+        if (compression == HUFF_CDIC_COMPRESSION) {
+            throw new IOException("HUFF/CDIC compressed text is not supported");
+        }
+        if (compression != NO_COMPRESSION && compression != PALMDOC_COMPRESSION) {
+            throw new IOException("Unknown text compression " + compression);
+        }
+
+        int flowEnd;
+        try (RandomAccessFile raf = new RandomAccessFile(book.getFile(), "r")) {
+            // KF8 keeps the index of the FDST record where MOBI 6 has the content range
+            int fdstIndex = mobiHeader.firstContentIndex() << 16 | mobiHeader.lastContentIndex();
+            flowEnd = firstFlowEnd(raf, records, fdstIndex);
+        } catch (IOException ex) {
+            log.error("Could not read book text: ", ex);
+            throw ex;
+        }
+
+        int headerRecord = metadata.getHeaderRecord();
+        // the record after the last text record marks where it ends
+        int endRecord = Math.min(headerRecord + palmDocHeader.recordCount() + 1, records.size() - 1);
+        Charset charset = mobiHeader.encoding() == UTF8_ENCODING
+                ? StandardCharsets.UTF_8
+                : Charset.forName("windows-1252");
+        return new BookText(
+                book.getFile(),
+                records,
+                compression,
+                mobiHeader.extraRecordDataFlags(),
+                headerRecord + 1,
+                endRecord,
+                flowEnd,
+                flowEnd > 0 ? flowEnd : palmDocHeader.bookLen(),
+                charset
+        );
+    }
+
+    // decodes up to count more text records and appends their paragraphs,
+    // false once the whole text is decoded. A record that can not be read ends the text
+    public boolean decode(int count) throws IOException {
+        synchronized (this.decoder) {
+            if (this.complete) {
+                return false;
+            }
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            int last = (int)Math.min((long)this.nextRecord + count, this.endRecord);
+            try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+                while (this.nextRecord < last) {
+                    readRecord(raf, this.nextRecord, text);
+                    this.nextRecord++;
+                }
+            } catch (IOException ex) {
+                log.error("Could not read book text: ", ex);
+                append(parse("", true), 0, true);
+                throw ex;
+            }
+
+            byte[] html = text.toByteArray();
+            int size = html.length;
+            boolean end = this.nextRecord >= this.endRecord;
+            // whatever follows the end of the HTML flow is not text
+            if (this.flowEnd > 0 && this.decodedBytes + size >= this.flowEnd) {
+                size = (int)Math.max(0, this.flowEnd - this.decodedBytes);
+                end = true;
+            }
+            append(parse(decodeChars(html, size, end), end), size, end);
+            return !end;
+        }
+    }
+
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    // the paragraphs decoded so far
+    public synchronized List<String> getParagraphs() {
+        return List.copyOf(this.paragraphs);
+    }
+
+    public synchronized int getParagraphCount() {
+        return this.paragraphs.size();
+    }
+
+    public synchronized String getParagraph(int paragraph) {
+        return this.paragraphs.get(paragraph);
+    }
+
+    // the paragraph count gives the end of the text decoded so far
+    public synchronized int getParagraphStart(int paragraph) {
+        return paragraph == this.paragraphs.size() ? this.length : this.starts[paragraph];
+    }
+
+    // length of the text decoded so far
+    public synchronized int getLength() {
+        return this.length;
+    }
+
+    // share of the book before the position, while the text is still being
+    // decoded the rest is assumed to be as dense as the decoded part
+    public synchronized double fractionAt(int position) {
+        if (this.length == 0) {
+            return 0;
+        }
+        double fraction = (double)position / this.length;
+        if (this.complete || this.totalBytes <= 0) {
+            return fraction;
+        }
+        return Math.min(1, fraction * this.decodedBytes / this.totalBytes);
+    }
+
+    // paragraph containing the given position
+    public synchronized int paragraphAt(int position) {
+        int low = 0;
+        int high = this.paragraphs.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.starts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Math.max(low, 0);
+    }
+
+    private synchronized void append(List<String> decoded, int bytes, boolean end) {
+        int count = this.paragraphs.size() + decoded.size();
+        if (count > this.starts.length) {
+            this.starts = Arrays.copyOf(this.starts, Math.max(count, this.starts.length * 2));
+        }
+        for (String paragraph : decoded) {
+            this.starts[this.paragraphs.size()] = this.length;
+            this.paragraphs.add(paragraph);
+            this.length += paragraph.length();
+        }
+        this.decodedBytes += bytes;
+        this.complete = end;
+    }
+
+    private void readRecord(RandomAccessFile raf, int record, ByteArrayOutputStream text) throws IOException {
+        long offset = this.records.get(record).offset();
+        int len = Math.toIntExact(this.records.get(record + 1).offset() - offset);
+        byte[] buf = new byte[len];
+        raf.seek(offset);
+        raf.readFully(buf);
+        len -= trailingEntriesSize(buf, len, this.extraRecordDataFlags);
+        if (this.compression == PALMDOC_COMPRESSION) {
+            decompressPalmDoc(buf, len, text);
+        } else {
+            text.write(buf, 0, len);
+        }
+    }
+
+    // a character split between two batches is kept back for the next one
+    private String decodeChars(byte[] bytes, int len, boolean end) {
+        ByteBuffer in = ByteBuffer.allocate(this.undecoded.length + len);
+        in.put(this.undecoded).put(bytes, 0, len).flip();
+        CharBuffer out = CharBuffer.allocate((int)Math.ceil(in.remaining() * this.decoder.maxCharsPerByte()) + 1);
+        this.decoder.decode(in, out, end);
+        if (end) {
+            this.decoder.flush(out);
+        }
+        this.undecoded = new byte[in.remaining()];
+        in.get(this.undecoded);
+        return out.flip().toString();
+    }
+
+    // end of the HTML flow, the flows after it hold CSS and SVG
+    private static int firstFlowEnd(
+            RandomAccessFile raf,
+            List<Azw3Metadata.PalmDatabaseRecord> records,
+            int fdstIndex
+    ) throws IOException {
+        if (fdstIndex <= 0 || fdstIndex >= records.size()) {
+            return -1;
+        }
+        raf.seek(records.get(fdstIndex).offset());
+        byte[] identifier = new byte[4];
+        raf.readFully(identifier);
+        if (!new String(identifier, StandardCharsets.US_ASCII).equals("FDST")) {
+            return -1;
+        }
+        raf.skipBytes(4);
+        int flowCount = raf.readInt();
+        if (flowCount <= 0) {
+            return -1;
+        }
+        raf.skipBytes(4);
+        return raf.readInt();
+    }
+
+    // every set bit above the first one adds an entry whose size is stored
+    // backwards at the end of the record, the first bit adds multibyte overlap bytes
+    private static int trailingEntriesSize(byte[] record, int len, int flags) {
+        int size = 0;
+        for (int bits = flags >>> 1; bits != 0; bits >>>= 1) {
+            if ((bits & 1) == 1) {
+                size += backwardVarInt(record, len - size);
+            }
+        }
+        if ((flags & 1) == 1 && len - size > 0) {
+            size += (record[len - size - 1] & 0x3) + 1;
+        }
+        return Math.min(size, len);
+    }
+
+    private static int backwardVarInt(byte[] record, int end) {
+        int result = 0;
+        int shift = 0;
+        int pos = end;
+        while (pos > 0) {
+            int value = record[--pos] & 0xFF;
+            result |= (value & 0x7F) << shift;
+            shift += 7;
+            if ((value & 0x80) != 0 || shift >= 28) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private static void decompressPalmDoc(byte[] data, int len, ByteArrayOutputStream out) {
+        byte[] buf = new byte[Math.max(len * 8, 4096)];
+        int outLen = 0;
+        int i = 0;
+        while (i < len) {
+            int c = data[i++] & 0xFF;
+            if (outLen + 10 + c > buf.length) {
+                byte[] grown = new byte[buf.length * 2 + c];
+                System.arraycopy(buf, 0, grown, 0, outLen);
+                buf = grown;
+            }
+            if (c >= 1 && c <= 8) {
+                // the next c bytes are literals
+                for (int j = 0; j < c && i < len; j++) {
+                    buf[outLen++] = data[i++];
+                }
+            } else if (c < 0x80) {
+                buf[outLen++] = (byte)c;
+            } else if (c >= 0xC0) {
+                buf[outLen++] = ' ';
+                buf[outLen++] = (byte)(c ^ 0x80);
+            } else if (i < len) {
+                // 11 bits of distance and 3 bits of length back into the output
+                int pair = (c << 8) | (data[i++] & 0xFF);
+                int distance = (pair >> 3) & 0x7FF;
+                int count = (pair & 0x7) + 3;
+                if (distance == 0 || distance > outLen) {
+                    continue;
+                }
+                for (int j = 0; j < count; j++) {
+                    buf[outLen] = buf[outLen - distance];
+                    outLen++;
+                }
+            }
+        }
+        out.write(buf, 0, outLen);
+    }
+
+    // carries on from the previous batch, a tag or an entity cut off by the
+    // end of the batch is parsed with the next one
+    private List<String> parse(String chunk, boolean end) {
+        String html = this.unparsed + chunk;
+        List<String> paragraphs = new ArrayList<>();
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int tagEnd = html.indexOf('>', i);
+                if (tagEnd < 0) {
+                    break;
+                }
+                String tag = tagName(html, i + 1, tagEnd);
+                boolean closing = i + 1 < tagEnd && html.charAt(i + 1) == '/';
+                if (this.skipping != null) {
+                    if (closing && tag.equals(this.skipping)) {
+                        this.skipping = null;
+                    }
+                } else if (!closing && SKIPPED_TAGS.contains(tag) && html.charAt(tagEnd - 1) != '/') {
+                    this.skipping = tag;
+                } else if (BLOCK_TAGS.contains(tag)) {
+                    endParagraph(this.current, paragraphs);
+                }
+                i = tagEnd + 1;
+            } else if (this.skipping != null) {
+                i++;
+            } else if (c == '&') {
+                int entityEnd = html.indexOf(';', i);
+                if (entityEnd > i && entityEnd - i <= MAX_ENTITY_LENGTH) {
+                    this.current.append(decodeEntity(html.substring(i + 1, entityEnd)));
+                    i = entityEnd + 1;
+                } else if (entityEnd < 0 && !end && html.length() - i <= MAX_ENTITY_LENGTH) {
+                    break;
+                } else {
+                    this.current.append(c);
+                    i++;
+                }
+            } else {
+                if (Character.isWhitespace(c)) {
+                    if (!this.current.isEmpty() && this.current.charAt(this.current.length() - 1) != ' ') {
+                        this.current.append(' ');
+                    }
+                } else {
+                    this.current.append(c);
+                }
+                i++;
+            }
+        }
+        if (end) {
+            this.unparsed = "";
+            endParagraph(this.current, paragraphs);
+        } else {
+            this.unparsed = html.substring(i);
+        }
+        return paragraphs;
+    }
+
+    private static String tagName(String html, int start, int end) {
+        int i = start;
+        if (i < end && (html.charAt(i) == '/' || html.charAt(i) == '!' || html.charAt(i) == '?')) {
+            i++;
+        }
+        int nameStart = i;
+        while (i < end && Character.isLetterOrDigit(html.charAt(i))) {
+            i++;
+        }
+        return html.substring(nameStart, i).toLowerCase(Locale.ROOT);
+    }
+
+    private static void endParagraph(StringBuilder current, List<String> paragraphs) {
+        String paragraph = current.toString().strip();
+        if (!paragraph.isEmpty()) {
+            paragraphs.add(paragraph);
+        }
+        current.setLength(0);
+    }
+
+    private static String decodeEntity(String entity) {
+        if (entity.startsWith("#x") || entity.startsWith("#X")) {
+            try {
+                return Character.toString(Integer.parseInt(entity.substring(2), 16));
+            } catch (IllegalArgumentException ex) {
+                return "";
+            }
+        }
+        if (entity.startsWith("#")) {
+            try {
+                return Character.toString(Integer.parseInt(entity.substring(1)));
+            } catch (IllegalArgumentException ex) {
+                return "";
+            }
+        }
+        return switch (entity) {
+            case "amp" -> "&";
+            case "lt" -> "<";
+            case "gt" -> ">";
+            case "quot" -> "\"";
+            case "apos" -> "'";
+            case "nbsp" -> " ";
+            case "mdash" -> "—";
+            case "ndash" -> "–";
+            case "hellip" -> "…";
+            default -> "";
+        };
+    }
+}
@@ -0,0 +1,346 @@
+package org.example.azw3reader.core;
+
+import org.example.azw3reader.utils.HashUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+// Finds books that share their page images. Every image record is hashed on
+// its own, so a different header, cover or title does not hide a duplicate.
+// A book is summarized by a bottom-k MinHash sketch of its record hashes and
+// the sketches are indexed by value, so a query only compares books that
+// share at least one sketched record.
+//
+// With a store file the fingerprints outlive the application together with
+// the size and modification time of their book, so a rescan at startup only
+// reads the books that changed since they were hashed.
+public class FingerprintIndex {
+    private static final Logger log = LoggerFactory.getLogger(FingerprintIndex.class);
+    private static final int STORE_VERSION = 1;
+    private static final int SKETCH_SIZE = 64;
+    // record hashes shared by this many books (blank pages, publisher logos) are not used to find candidates
+    private static final int MAX_POSTINGS = 512;
+    // records hashed by one task, a scan gives its I/O worker back to page reads this often
+    private static final int BATCH_SIZE = 16;
+
+    public record Fingerprint(
+            File file,
+            long size,
+            long lastModified,
+            int recordCount,
+            long digest,
+            long[] sketch
+    ){}
+
+    public record Match(
+            File file,
+            File duplicate,
+            double similarity,
+            boolean exact
+    ){}
+
+    private final TaskScheduler scheduler;
+    private final Path store;
+    private final Map<File, Fingerprint> fingerprints = new HashMap<>();
+    private final Map<Long, List<File>> postings = new HashMap<>();
+    private final Map<Long, List<File>> digests = new HashMap<>();
+    // the store is read on first use, on a background thread
+    private boolean loaded;
+
+    public FingerprintIndex(TaskScheduler scheduler) {
+        this(scheduler, null);
+    }
+
+    public FingerprintIndex(TaskScheduler scheduler, Path store) {
+        this.scheduler = scheduler;
+        this.store = store;
+        this.loaded = store == null;
+    }
+
+    // fingerprints the books on the I/O workers, reading dominates hashing, and
+    // blocks until they are all indexed. Books unchanged since they were hashed are skipped
+    public void index(Collection<? extends PageSource> sources) throws InterruptedException {
+        load();
+        List<PageSource> books = new ArrayList<>(sources.size());
+        List<long[]> stamps = new ArrayList<>(sources.size());
+        List<long[]> hashes = new ArrayList<>(sources.size());
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (PageSource source : sources) {
+            int pageCount = source.getPageCount();
+            // taken before the read, a book written to while it is hashed is hashed again next time
+            long[] stamp = {source.getFile().length(), source.getFile().lastModified()};
+            if (pageCount <= 0 || isCurrent(source.getFile(), stamp)) {
+                continue;
+            }
+            long[] bookHashes = new long[pageCount];
+            books.add(source);
+            stamps.add(stamp);
+            hashes.add(bookHashes);
+            for (int from = 0; from < pageCount; from += BATCH_SIZE) {
+                int start = from;
+                int end = Math.min(pageCount, from + BATCH_SIZE);
+                tasks.add(() -> hashRecords(source, bookHashes, start, end));
+            }
+        }
+        List<Boolean> hashed = this.scheduler.invokeAll(
+                this,
+                TaskScheduler.Priority.INDEXING,
+                TaskScheduler.Resource.IO,
+                tasks
+        );
+        int task = 0;
+        for (int i = 0; i < books.size(); i++) {
+            // a book with a failed or cancelled batch is left out
+            boolean complete = true;
+            for (int from = 0; from < hashes.get(i).length; from += BATCH_SIZE) {
+                complete &= Boolean.TRUE.equals(hashed.get(task++));
+            }
+            if (complete) {
+                add(summarize(books.get(i).getFile(), stamps.get(i), hashes.get(i)));
+            }
+        }
+        if (!books.isEmpty()) {
+            save();
+        }
+    }
+
+    public Fingerprint fingerprint(PageSource source) {
+        int pageCount = source.getPageCount();
+        if (pageCount <= 0) {
+            return null;
+        }
+        long[] stamp = {source.getFile().length(), source.getFile().lastModified()};
+        long[] hashes = new long[pageCount];
+        hashRecords(source, hashes, 0, pageCount);
+        return summarize(source.getFile(), stamp, hashes);
+    }
+
+    private synchronized boolean isCurrent(File file, long[] stamp) {
+        Fingerprint fingerprint = this.fingerprints.get(file);
+        return fingerprint != null && fingerprint.size() == stamp[0] && fingerprint.lastModified() == stamp[1];
+    }
+
+    // false when the scheduled task was cancelled part way
+    private static boolean hashRecords(PageSource source, long[] hashes, int start, int end) {
+        TaskScheduler.Ticket ticket = TaskScheduler.current();
+        for (int i = start; i < end; i++) {
+            if (ticket != null && ticket.isCancelled()) {
+                return false;
+            }
+            byte[] record = source.getPageBytes(i);
+            hashes[i] = record == null ? 0 : HashUtils.xxHash64(record);
+        }
+        return true;
+    }
+
+    private static Fingerprint summarize(File file, long[] stamp, long[] hashes) {
+        byte[] ordered = new byte[hashes.length * Long.BYTES];
+        for (int i = 0; i < hashes.length; i++) {
+            long hash = hashes[i];
+            for (int b = 0; b < Long.BYTES; b++) {
+                ordered[i * Long.BYTES + b] = (byte)(hash >>> (b * 8));
+            }
+        }
+        long digest = HashUtils.xxHash64(ordered);
+
+        long[] sketch = Arrays.stream(hashes).distinct().sorted().limit(SKETCH_SIZE).toArray();
+        return new Fingerprint(file, stamp[0], stamp[1], hashes.length, digest, sketch);
+    }
+
+    public synchronized void add(Fingerprint fingerprint) {
+        load();
+        remove(fingerprint.file());
+        this.fingerprints.put(fingerprint.file(), fingerprint);
+        for (long hash : fingerprint.sketch()) {
+            this.postings.computeIfAbsent(hash, _ -> new ArrayList<>(1)).add(fingerprint.file());
+        }
+        this.digests.computeIfAbsent(fingerprint.digest(), _ -> new ArrayList<>(1)).add(fingerprint.file());
+    }
+
+    public synchronized void remove(File file) {
+        load();
+        Fingerprint fingerprint = this.fingerprints.remove(file);
+        if (fingerprint == null) {
+            return;
+        }
+        for (long hash : fingerprint.sketch()) {
+            removePosting(this.postings, hash, file);
+        }
+        removePosting(this.digests, fingerprint.digest(), file);
+    }
+
+    public synchronized int size() {
+        load();
+        return this.fingerprints.size();
+    }
+
+    // books with the same images as the given one, best matches first
+    public synchronized List<Match> findDuplicates(File file, double minSimilarity) {
+        load();
+        Fingerprint fingerprint = this.fingerprints.get(file);
+        if (fingerprint == null) {
+            return List.of();
+        }
+        List<Match> matches = new ArrayList<>();
+        for (File candidate : candidates(fingerprint)) {
+            Match match = compare(fingerprint, this.fingerprints.get(candidate));
+            if (match.similarity() >= minSimilarity) {
+                matches.add(match);
+            }
+        }
+        matches.sort((a, b) -> Double.compare(b.similarity(), a.similarity()));
+        return matches;
+    }
+
+    // every pair of duplicates in the catalog, each pair reported once
+    public synchronized List<Match> findAllDuplicates(double minSimilarity) {
+        load();
+        List<Match> matches = new ArrayList<>();
+        for (Fingerprint fingerprint : this.fingerprints.values()) {
+            String path = fingerprint.file().getPath();
+            for (File candidate : candidates(fingerprint)) {
+                if (path.compareTo(candidate.getPath()) >= 0) {
+                    continue;
+                }
+                Match match = compare(fingerprint, this.fingerprints.get(candidate));
+                if (match.similarity() >= minSimilarity) {
+                    matches.add(match);
+                }
+            }
+        }
+        matches.sort((a, b) -> Double.compare(b.similarity(), a.similarity()));
+        return matches;
+    }
+
+    // fingerprints of books that were deleted while the application was not running are dropped
+    private synchronized void load() {
+        if (this.loaded) {
+            return;
+        }
+        this.loaded = true;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.store)))) {
+            if (in.readInt() != STORE_VERSION) {
+                log.warn("Ignoring fingerprints of another version in {}", this.store);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                File file = new File(in.readUTF());
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int recordCount = in.readInt();
+                long digest = in.readLong();
+                long[] sketch = new long[in.readInt()];
+                for (int j = 0; j < sketch.length; j++) {
+                    sketch[j] = in.readLong();
+                }
+                if (file.isFile()) {
+                    add(new Fingerprint(file, size, lastModified, recordCount, digest, sketch));
+                }
+            }
+        } catch (NoSuchFileException ex) {
+            // first run
+        } catch (IOException ex) {
+            log.warn("Could not read fingerprints from {}: {}", this.store, ex.getMessage());
+        }
+    }
+
+    // written next to the store and moved over it, so a crash leaves the previous store
+    private synchronized void save() {
+        if (this.store == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(this.store.toAbsolutePath().getParent());
+            Path temp = this.store.resolveSibling(this.store.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(STORE_VERSION);
+                out.writeInt(this.fingerprints.size());
+                for (Fingerprint fingerprint : this.fingerprints.values()) {
+                    out.writeUTF(fingerprint.file().getPath());
+                    out.writeLong(fingerprint.size());
+                    out.writeLong(fingerprint.lastModified());
+                    out.writeInt(fingerprint.recordCount());
+                    out.writeLong(fingerprint.digest());
+                    out.writeInt(fingerprint.sketch().length);
+                    for (long hash : fingerprint.sketch()) {
+                        out.writeLong(hash);
+                    }
+                }
+            }
+            Files.move(temp, this.store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.error("Could not save fingerprints to {}: ", this.store, ex);
+        }
+    }
+
+    private Set<File> candidates(Fingerprint fingerprint) {
+        Set<File> candidates = new HashSet<>(this.digests.getOrDefault(fingerprint.digest(), List.of()));
+        for (long hash : fingerprint.sketch()) {
+            List<File> files = this.postings.get(hash);
+            if (files != null && files.size() <= MAX_POSTINGS) {
+                candidates.addAll(files);
+            }
+        }
+        candidates.remove(fingerprint.file());
+        return candidates;
+    }
+
+    private static Match compare(Fingerprint a, Fingerprint b) {
+        if (a.digest() == b.digest() && a.recordCount() == b.recordCount()) {
+            return new Match(a.file(), b.file(), 1.0, true);
+        }
+        return new Match(a.file(), b.file(), estimateJaccard(a.sketch(), b.sketch()), false);
+    }
+
+    // bottom-k estimate: the share of the k smallest hashes of the union that are in both sketches
+    private static double estimateJaccard(long[] a, long[] b) {
+        int i = 0;
+        int j = 0;
+        int union = 0;
+        int shared = 0;
+        while (union < SKETCH_SIZE && (i < a.length || j < b.length)) {
+            if (j >= b.length || (i < a.length && a[i] < b[j])) {
+                i++;
+            } else if (i >= a.length || b[j] < a[i]) {
+                j++;
+            } else {
+                shared++;
+                i++;
+                j++;
+            }
+            union++;
+        }
+        return union == 0 ? 0 : (double)shared / union;
+    }
+
+    private static void removePosting(Map<Long, List<File>> index, long key, File file) {
+        List<File> files = index.get(key);
+        if (files == null) {
+            return;
+        }
+        files.remove(file);
+        if (files.isEmpty()) {
+            index.remove(key);
+        }
+    }
+}
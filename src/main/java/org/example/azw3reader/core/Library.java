@@ -0,0 +1,118 @@
+package org.example.azw3reader.core;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// All books found under the library roots. The model only changes through
+// apply, listeners get every change as one diff and are called on the
+// thread that applied it.
+public class Library {
+
+    // only what listing and querying need, a library of 100k books must not
+    // keep every header record. The headers are parsed again when a book is opened
+    public record Entry(
+            File file,
+            String title,
+            String author,
+            String publisher,
+            String language,
+            String writingMode,
+            int publishedYear,
+            int pageCount
+    ){
+        public static Entry of(File file, Azw3Metadata metadata, String title) {
+            String writingMode = exthString(metadata, 527);
+            return new Entry(
+                    file,
+                    title,
+                    exthString(metadata, 100),
+                    exthString(metadata, 101),
+                    exthString(metadata, 524),
+                    writingMode.isEmpty() ? exthString(metadata, 525) : writingMode,
+                    year(exthString(metadata, 106)),
+                    new Book(file, metadata, false).getPageCount()
+            );
+        }
+    }
+
+    public record Change(
+            List<Entry> added,
+            List<Entry> updated,
+            List<File> removed
+    ){
+        public boolean isEmpty() {
+            return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private final Map<File, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Consumer<Change>> listeners = new CopyOnWriteArrayList<>();
+
+    public synchronized void apply(Change change) {
+        if (change.isEmpty()) {
+            return;
+        }
+        for (File file : change.removed()) {
+            entries.remove(file);
+        }
+        for (Entry entry : change.added()) {
+            entries.put(entry.file(), entry);
+        }
+        for (Entry entry : change.updated()) {
+            entries.put(entry.file(), entry);
+        }
+        for (Consumer<Change> listener : listeners) {
+            listener.accept(change);
+        }
+    }
+
+    public boolean contains(File file) {
+        return entries.containsKey(file);
+    }
+
+    public Entry get(File file) {
+        return entries.get(file);
+    }
+
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    public void addListener(Consumer<Change> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Change> listener) {
+        listeners.remove(listener);
+    }
+
+    private static String exthString(Azw3Metadata metadata, int type) {
+        if (metadata.getExthHeader() == null) {
+            return "";
+        }
+        for (Azw3Metadata.EXTHRecord record : metadata.getExthHeader().records()) {
+            if (record.recordType() == type) {
+                return new String(record.recordData(), StandardCharsets.UTF_8).trim();
+            }
+        }
+        return "";
+    }
+
+    // EXTH 106 is usually an ISO date, only the year is kept
+    private static int year(String date) {
+        if (date.length() < 4) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(date.substring(0, 4));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+}
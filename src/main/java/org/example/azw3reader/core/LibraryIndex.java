@@ -0,0 +1,289 @@
+package org.example.azw3reader.core;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Column store of the library metadata for sorting, filtering and facet
+// counts. Every row is one book, string columns keep a dictionary code per
+// row and int columns the value itself, so a query scans a few primitive
+// arrays instead of the EXTH records of every book. Removing a book moves the
+// last row into its place, so the columns stay dense.
+public class LibraryIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+    // codes that were given back have no value and sort last
+    private static final Comparator<String> RANK_ORDER = Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER);
+
+    public enum StringColumn {
+        TITLE,
+        AUTHOR,
+        PUBLISHER,
+        LANGUAGE,
+        WRITING_MODE
+    }
+
+    public enum IntColumn {
+        PAGE_COUNT,
+        PUBLISHED_YEAR
+    }
+
+    public sealed interface Filter {
+        static Filter equalTo(StringColumn column, String value) {
+            return new Equal(column, value);
+        }
+
+        static Filter between(IntColumn column, int min, int max) {
+            return new Range(column, min, max);
+        }
+    }
+
+    public record Equal(
+            StringColumn column,
+            String value
+    ) implements Filter {}
+
+    public record Range(
+            IntColumn column,
+            int min,
+            int max
+    ) implements Filter {}
+
+    // distinct values of a string column with the number of rows holding each.
+    // A value no row holds any more gives its code back for the next new value,
+    // so updated and deleted books leave nothing behind.
+    private static class Dictionary {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+        private final ArrayDeque<Integer> freeCodes = new ArrayDeque<>();
+        private int[] counts = new int[16];
+        // sort position of every code, rebuilt on the first query after a new value
+        private int[] ranks;
+
+        int encode(String value) {
+            Integer code = this.codes.get(value);
+            if (code == null) {
+                code = this.freeCodes.pollFirst();
+                if (code == null) {
+                    code = this.values.size();
+                    this.values.add(value);
+                    if (code == this.counts.length) {
+                        this.counts = Arrays.copyOf(this.counts, code * 2);
+                    }
+                } else {
+                    this.values.set(code, value);
+                }
+                this.codes.put(value, code);
+                this.ranks = null;
+            }
+            this.counts[code]++;
+            return code;
+        }
+
+        void release(int code) {
+            if (--this.counts[code] == 0) {
+                // the ranks of the other codes keep their order, so they stay valid
+                this.codes.remove(this.values.get(code));
+                this.values.set(code, null);
+                this.freeCodes.addLast(code);
+            }
+        }
+
+        int code(String value) {
+            return this.codes.getOrDefault(value, -1);
+        }
+
+        int[] ranks() {
+            if (this.ranks == null) {
+                Integer[] order = new Integer[this.values.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> RANK_ORDER.compare(this.values.get(a), this.values.get(b)));
+                int[] ranks = new int[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    ranks[order[i]] = i;
+                }
+                this.ranks = ranks;
+            }
+            return this.ranks;
+        }
+    }
+
+    private final Map<File, Integer> rows = new HashMap<>();
+    private final Map<StringColumn, Dictionary> dictionaries = new EnumMap<>(StringColumn.class);
+    private final int[][] stringColumns = new int[StringColumn.values().length][];
+    private final int[][] intColumns = new int[IntColumn.values().length][];
+    private Library.Entry[] entries = new Library.Entry[INITIAL_CAPACITY];
+    private int size;
+
+    public LibraryIndex() {
+        for (StringColumn column : StringColumn.values()) {
+            this.dictionaries.put(column, new Dictionary());
+            this.stringColumns[column.ordinal()] = new int[INITIAL_CAPACITY];
+        }
+        for (IntColumn column : IntColumn.values()) {
+            this.intColumns[column.ordinal()] = new int[INITIAL_CAPACITY];
+        }
+    }
+
+    public synchronized void apply(Library.Change change) {
+        change.removed().forEach(this::remove);
+        change.added().forEach(this::add);
+        change.updated().forEach(this::add);
+    }
+
+    public synchronized void add(Library.Entry entry) {
+        remove(entry.file());
+        if (this.size == this.entries.length) {
+            grow();
+        }
+        int row = this.size++;
+        this.rows.put(entry.file(), row);
+        this.entries[row] = entry;
+
+        setString(StringColumn.TITLE, row, entry.title());
+        setString(StringColumn.AUTHOR, row, entry.author());
+        setString(StringColumn.PUBLISHER, row, entry.publisher());
+        setString(StringColumn.LANGUAGE, row, entry.language());
+        setString(StringColumn.WRITING_MODE, row, entry.writingMode());
+        this.intColumns[IntColumn.PAGE_COUNT.ordinal()][row] = entry.pageCount();
+        this.intColumns[IntColumn.PUBLISHED_YEAR.ordinal()][row] = entry.publishedYear();
+    }
+
+    public synchronized void remove(File file) {
+        Integer removed = this.rows.remove(file);
+        if (removed == null) {
+            return;
+        }
+        int row = removed;
+        for (StringColumn column : StringColumn.values()) {
+            this.dictionaries.get(column).release(this.stringColumns[column.ordinal()][row]);
+        }
+        int last = --this.size;
+        if (row != last) {
+            for (int[] values : this.stringColumns) {
+                values[row] = values[last];
+            }
+            for (int[] values : this.intColumns) {
+                values[row] = values[last];
+            }
+            this.entries[row] = this.entries[last];
+            this.rows.put(this.entries[row].file(), row);
+        }
+        this.entries[last] = null;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    // books matching every filter, sorted by the given column
+    public synchronized List<Library.Entry> query(List<Filter> filters, StringColumn sortBy, boolean ascending) {
+        int[] ranks = this.dictionaries.get(sortBy).ranks();
+        int[] codes = this.stringColumns[sortBy.ordinal()];
+        return sorted(matching(filters), row -> ranks[codes[row]], ascending);
+    }
+
+    public synchronized List<Library.Entry> query(List<Filter> filters, IntColumn sortBy, boolean ascending) {
+        int[] values = this.intColumns[sortBy.ordinal()];
+        return sorted(matching(filters), row -> values[row], ascending);
+    }
+
+    // number of matching books per value of the column, most common first
+    public synchronized Map<String, Integer> facets(StringColumn column, List<Filter> filters) {
+        Dictionary dictionary = this.dictionaries.get(column);
+        int[] counts;
+        if (filters.isEmpty()) {
+            counts = dictionary.counts;
+        } else {
+            counts = new int[dictionary.values.size()];
+            int[] codes = this.stringColumns[column.ordinal()];
+            BitSet matching = matching(filters);
+            for (int row = matching.nextSetBit(0); row >= 0; row = matching.nextSetBit(row + 1)) {
+                counts[codes[row]]++;
+            }
+        }
+        Integer[] order = new Integer[dictionary.values.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(counts[b], counts[a]));
+        Map<String, Integer> facets = new LinkedHashMap<>();
+        for (int code : order) {
+            if (counts[code] > 0) {
+                facets.put(dictionary.values.get(code), counts[code]);
+            }
+        }
+        return facets;
+    }
+
+    private BitSet matching(List<Filter> filters) {
+        BitSet matching = new BitSet(this.size);
+        matching.set(0, this.size);
+        for (Filter filter : filters) {
+            switch (filter) {
+                case Equal equal -> {
+                    int code = this.dictionaries.get(equal.column()).code(equal.value());
+                    int[] codes = this.stringColumns[equal.column().ordinal()];
+                    for (int row = matching.nextSetBit(0); row >= 0; row = matching.nextSetBit(row + 1)) {
+                        if (codes[row] != code) {
+                            matching.clear(row);
+                        }
+                    }
+                }
+                case Range range -> {
+                    int[] values = this.intColumns[range.column().ordinal()];
+                    for (int row = matching.nextSetBit(0); row >= 0; row = matching.nextSetBit(row + 1)) {
+                        if (values[row] < range.min() || values[row] > range.max()) {
+                            matching.clear(row);
+                        }
+                    }
+                }
+            }
+        }
+        return matching;
+    }
+
+    private interface RowKey {
+        int of(int row);
+    }
+
+    // sorts on key and row packed in one long, ties keep the row order
+    private List<Library.Entry> sorted(BitSet matching, RowKey key, boolean ascending) {
+        long[] packed = new long[matching.cardinality()];
+        int i = 0;
+        for (int row = matching.nextSetBit(0); row >= 0; row = matching.nextSetBit(row + 1)) {
+            packed[i++] = (long)key.of(row) << 32 | row;
+        }
+        Arrays.sort(packed);
+        List<Library.Entry> result = new ArrayList<>(packed.length);
+        for (int j = 0; j < packed.length; j++) {
+            int row = (int)packed[ascending ? j : packed.length - 1 - j];
+            result.add(this.entries[row]);
+        }
+        return result;
+    }
+
+    private void setString(StringColumn column, int row, String value) {
+        this.stringColumns[column.ordinal()][row] = this.dictionaries.get(column).encode(value);
+    }
+
+    private void grow() {
+        int capacity = this.entries.length * 2;
+        this.entries = Arrays.copyOf(this.entries, capacity);
+        for (int i = 0; i < this.stringColumns.length; i++) {
+            this.stringColumns[i] = Arrays.copyOf(this.stringColumns[i], capacity);
+        }
+        for (int i = 0; i < this.intColumns.length; i++) {
+            this.intColumns[i] = Arrays.copyOf(this.intColumns[i], capacity);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.example.azw3reader.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the library in sync with its root folders. File system events are
+// collected until the folders have been quiet for a moment (or a burst has
+// gone on for too long) and then only the touched files are parsed, so a large
+// copy turns into a handful of library changes instead of one per file.
+public class LibraryWatcher {
+    private static final Logger log = LoggerFactory.getLogger(LibraryWatcher.class);
+    private static final long QUIET_PERIOD_MS = 500;
+    private static final long MAX_BATCH_DELAY_MS = 5000;
+
+    private record FileStamp(long size, long lastModified){}
+
+    private final Library library;
+    private final TaskScheduler scheduler;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    // size and modification time of every file when it was last parsed
+    private final Map<Path, FileStamp> stamps = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public LibraryWatcher(Library library, TaskScheduler scheduler) throws IOException {
+        this.library = library;
+        this.scheduler = scheduler;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        Thread watchThread = new Thread(this::watch, "library-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    // registers the folder tree and blocks until its books are in the library
+    public void addRoot(Path root) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        registerTree(root, files);
+        processBatch(files);
+    }
+
+    public void close() {
+        this.closed = true;
+        try {
+            this.watchService.close();
+        } catch (IOException ex) {
+            log.error("Could not close watch service: ", ex);
+        }
+    }
+
+    private void watch() {
+        Set<Path> dirty = new LinkedHashSet<>();
+        long firstEvent = 0;
+        while (!this.closed) {
+            WatchKey key;
+            try {
+                if (dirty.isEmpty()) {
+                    key = this.watchService.take();
+                    firstEvent = System.nanoTime();
+                } else {
+                    long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - firstEvent);
+                    long wait = Math.min(QUIET_PERIOD_MS, MAX_BATCH_DELAY_MS - elapsed);
+                    key = wait > 0 ? this.watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+
+            if (key == null) {
+                processBatch(dirty);
+                dirty = new LinkedHashSet<>();
+                continue;
+            }
+
+            Path dir = this.directories.get(key);
+            if (dir == null) {
+                key.cancel();
+                continue;
+            }
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    rescan(dir, dirty);
+                    continue;
+                }
+                Path path = dir.resolve((Path)event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                        && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    rescan(path, dirty);
+                } else {
+                    dirty.add(path);
+                }
+            }
+            if (!key.reset()) {
+                // the folder itself is gone
+                this.directories.remove(key);
+                dirty.add(dir);
+            }
+        }
+    }
+
+    private void rescan(Path dir, Set<Path> dirty) {
+        try {
+            registerTree(dir, dirty);
+        } catch (IOException ex) {
+            log.error("Could not scan {}: ", dir, ex);
+        }
+        // books that disappeared while events were lost
+        for (Library.Entry entry : this.library.getEntries()) {
+            Path path = entry.file().toPath();
+            if (path.startsWith(dir)) {
+                dirty.add(path);
+            }
+        }
+    }
+
+    private void registerTree(Path root, Set<Path> files) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(
+                        watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY
+                );
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && isBook(file)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                log.error("Could not visit {}: ", file, ex);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // addRoot and the watch thread both get here, one batch at a time keeps a file found by both from being added twice
+    private synchronized void processBatch(Collection<Path> paths) {
+        List<File> removed = new ArrayList<>();
+        List<Path> changed = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isRegularFile(path)) {
+                if (isBook(path) && !stamp(path).equals(this.stamps.get(path))) {
+                    changed.add(path);
+                }
+            } else if (!Files.exists(path)) {
+                // either a single book or a whole folder was deleted
+                for (Library.Entry entry : this.library.getEntries()) {
+                    Path entryPath = entry.file().toPath();
+                    if (entryPath.startsWith(path)) {
+                        removed.add(entry.file());
+                        this.stamps.remove(entryPath);
+                    }
+                }
+            }
+        }
+
+        List<Callable<Library.Entry>> parseTasks = new ArrayList<>(changed.size());
+        for (Path path : changed) {
+            parseTasks.add(() -> parse(path));
+        }
+        List<Library.Entry> added = new ArrayList<>();
+        List<Library.Entry> updated = new ArrayList<>();
+        try {
+            List<Library.Entry> entries = this.scheduler.invokeAll(
+                    this,
+                    TaskScheduler.Priority.INDEXING,
+                    TaskScheduler.Resource.IO,
+                    parseTasks
+            );
+            for (Library.Entry entry : entries) {
+                if (entry == null) {
+                    continue;
+                }
+                if (this.library.contains(entry.file())) {
+                    updated.add(entry);
+                } else {
+                    added.add(entry);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        Library.Change change = new Library.Change(added, updated, removed);
+        log.debug("Library batch: {} added, {} updated, {} removed", added.size(), updated.size(), removed.size());
+        this.library.apply(change);
+    }
+
+    private Library.Entry parse(Path path) {
+        File file = path.toFile();
+        FileStamp stamp = stamp(path);
+        try {
+            Azw3Metadata metadata = Azw3Metadata.of(file);
+            String title;
+            try (Book book = new Book(file, metadata, false)) {
+                title = book.getTitle().trim();
+            }
+            this.stamps.put(path, stamp);
+            return Library.Entry.of(file, metadata, title);
+        } catch (IOException | RuntimeException ex) {
+            // most likely still being written, the next modify event tries again
+            log.debug("Could not parse {}: {}", path, ex.getMessage());
+            return null;
+        }
+    }
+
+    private static FileStamp stamp(Path path) {
+        File file = path.toFile();
+        return new FileStamp(file.length(), file.lastModified());
+    }
+
+    private static boolean isBook(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".azw3");
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.azw3reader.core;
+
+import javafx.geometry.Dimension2D;
+import javafx.scene.image.Image;
+import org.example.azw3reader.utils.ImageUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+// Random access to the page images of a book, independent of the container format.
+public interface PageSource extends AutoCloseable {
+
+    static PageSource open(File file) throws IOException {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".cbz") || name.endsWith(".zip")) {
+            return ZipPageSource.of(file);
+        }
+        Azw3Metadata metadata = Azw3Metadata.of(file);
+        return new Book(file, metadata);
+    }
+
+    File getFile();
+
+    String getTitle();
+
+    int getPageCount();
+
+    boolean leftToRight();
+
+    // true when the cover is an image of its own and not the first page
+    boolean hasSeparateCover();
+
+    Image getCover();
+
+    // raw encoded bytes of the cover, for decoding it off the I/O workers
+    default byte[] getCoverBytes() {
+        return getPageBytes(0);
+    }
+
+    // small cover image embedded in the book for a first paint, null when there is none
+    default Image getCoverThumbnail() {
+        return null;
+    }
+
+    // raw encoded bytes of the page, null when the index is out of range
+    byte[] getPageBytes(int index);
+
+    default Image getPage(int index) {
+        byte[] buf = getPageBytes(index);
+        if (buf == null) {
+            return null;
+        }
+        return new Image(new ByteArrayInputStream(buf));
+    }
+
+    default Image getPageThumbnail(int index, double width, double height) {
+        byte[] buf = getPageBytes(index);
+        if (buf == null) {
+            return null;
+        }
+        return new Image(new ByteArrayInputStream(buf), width, height, true, true);
+    }
+
+    default Dimension2D getPageSize(int index) {
+        byte[] buf = getPageBytes(index);
+        if (buf == null) {
+            return null;
+        }
+        return ImageUtils.probeSize(buf);
+    }
+
+    @Override
+    default void close() {
+    }
+}
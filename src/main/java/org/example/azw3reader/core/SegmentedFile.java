@@ -0,0 +1,90 @@
+package org.example.azw3reader.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Read only memory mapping of a whole file. A single MappedByteBuffer is
+// limited to 2 GB, so the file is mapped in fixed size segments and a read
+// that crosses a segment boundary is stitched together from both sides.
+// Reads use absolute gets only, so one instance can be shared by threads.
+// There is no public way to unmap, close only drops the segments so the next
+// GC can release them, the file stays locked on Windows until then.
+public class SegmentedFile {
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    private final File file;
+    private final long size;
+    private final int segmentSize;
+    private final MappedByteBuffer[] segments;
+    private volatile boolean closed;
+
+    public SegmentedFile(File file) throws IOException {
+        this(file, SEGMENT_SIZE);
+    }
+
+    public SegmentedFile(File file, int segmentSize) throws IOException {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.size = channel.size();
+            int count = (int)((this.size + segmentSize - 1) / segmentSize);
+            this.segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long position = (long)i * segmentSize;
+                // the mapping stays valid after the channel is closed
+                this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, this.size - position));
+            }
+        }
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    public byte[] read(long offset, int len) throws IOException {
+        checkBounds(offset, len);
+        byte[] buf = new byte[len];
+        read(offset, buf, 0, len);
+        return buf;
+    }
+
+    public void read(long offset, byte[] dst, int dstOffset, int len) throws IOException {
+        checkBounds(offset, len);
+        try {
+            while (len > 0) {
+                MappedByteBuffer segment = this.segments[(int)(offset / this.segmentSize)];
+                if (this.closed || segment == null) {
+                    throw new IOException(this.file + " is closed");
+                }
+                int position = (int)(offset % this.segmentSize);
+                int chunk = Math.min(len, segment.limit() - position);
+                segment.get(position, dst, dstOffset, chunk);
+                offset += chunk;
+                dstOffset += chunk;
+                len -= chunk;
+            }
+        } catch (InternalError ex) {
+            // a page of the mapping that can no longer be read, the file was truncated underneath it
+            throw new IOException("Could not read " + this.file + " at " + offset, ex);
+        }
+    }
+
+    private void checkBounds(long offset, int len) throws IOException {
+        if (offset < 0 || len < 0 || offset + len > this.size) {
+            throw new IOException("Read of " + len + " bytes at " + offset + " is outside of " + this.file + " (" + this.size + " bytes)");
+        }
+    }
+
+    public void close() {
+        this.closed = true;
+        Arrays.fill(this.segments, null);
+    }
+}
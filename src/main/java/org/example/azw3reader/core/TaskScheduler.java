@@ -0,0 +1,402 @@
+package org.example.azw3reader.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Runs all background reading and decoding of the application. Work is
+// queued by priority class on one of two worker pools, one sized for disk
+// reads and one for decoding, so a burst of thumbnails cannot starve a scan
+// of disk bandwidth or the other way round. The first worker of each pool only
+// takes visible page work, so a visible page never waits for a running
+// prefetch, thumbnail or library scan to finish.
+//
+// Queued work can be cancelled or moved to another priority through its
+// ticket. Running work is never interrupted, interrupts close the shared
+// channels of the page sources. Long jobs are split into small tasks, so they
+// give their worker back between steps, and each task checks isCancelled on
+// the current() ticket as it goes.
+public class TaskScheduler {
+    private static final Logger log = LoggerFactory.getLogger(TaskScheduler.class);
+    private static final ThreadLocal<Ticket> CURRENT = new ThreadLocal<>();
+
+    public enum Priority {
+        VISIBLE_PAGE,
+        PREFETCH,
+        THUMBNAIL,
+        INDEXING
+    }
+
+    public enum Resource {
+        IO,
+        CPU
+    }
+
+    public record QueueStats(
+            Resource resource,
+            Priority priority,
+            int queued,
+            long submitted,
+            long completed,
+            long cancelled
+    ){}
+
+    public final class Ticket {
+        private final Object owner;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Priority priority;
+        private volatile boolean cancelled;
+        // stage waiting in a queue, changed under the lock of its pool
+        private volatile Stage queued;
+
+        private Ticket(Object owner, Priority priority) {
+            this.owner = owner;
+            this.priority = priority;
+        }
+
+        public Priority getPriority() {
+            return this.priority;
+        }
+
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        public void cancel() {
+            TaskScheduler.this.cancel(this);
+        }
+
+        // moves the ticket to another priority class, it keeps its place among the tickets submitted after it
+        public void setPriority(Priority priority) {
+            TaskScheduler.this.setPriority(this, priority);
+        }
+
+        // blocks until the work ran or was cancelled before it started, never while it is still running
+        public void await() throws InterruptedException {
+            this.done.await();
+        }
+    }
+
+    private record Stage(Ticket ticket, Pool pool, Runnable work) {}
+
+    private static final class Pool {
+        private final Resource resource;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = this.lock.newCondition();
+        private final List<ArrayDeque<Stage>> queues = new ArrayList<>();
+        private final long[] submitted = new long[Priority.values().length];
+        private final long[] completed = new long[Priority.values().length];
+        private final long[] cancelled = new long[Priority.values().length];
+        private int running;
+        private boolean shutdown;
+
+        private Pool(Resource resource) {
+            this.resource = resource;
+            for (int i = 0; i < Priority.values().length; i++) {
+                this.queues.add(new ArrayDeque<>());
+            }
+        }
+    }
+
+    private final Pool io = new Pool(Resource.IO);
+    private final Pool cpu = new Pool(Resource.CPU);
+
+    public TaskScheduler(int ioThreads, int cpuThreads) {
+        start(this.io, Math.max(2, ioThreads), "io-worker");
+        start(this.cpu, Math.max(2, cpuThreads), "cpu-worker");
+    }
+
+    // ticket of the work running on the calling thread, null outside of the workers
+    public static Ticket current() {
+        return CURRENT.get();
+    }
+
+    public Ticket submit(Object owner, Priority priority, Resource resource, Runnable work) {
+        Ticket ticket = new Ticket(owner, priority);
+        enqueue(new Stage(ticket, pool(resource), () -> {
+            try {
+                work.run();
+            } finally {
+                ticket.done.countDown();
+            }
+        }));
+        return ticket;
+    }
+
+    // reads on the I/O pool, then hands the result to the CPU pool at the same priority
+    public <T> Ticket submit(Object owner, Priority priority, Callable<T> read, Consumer<T> decode) {
+        Ticket ticket = new Ticket(owner, priority);
+        enqueue(new Stage(ticket, this.io, () -> {
+            // released here unless the decode stage took it over, errors included
+            boolean handedOver = false;
+            try {
+                T value;
+                try {
+                    value = read.call();
+                } catch (Exception ex) {
+                    log.error("Could not read for {}: ", owner, ex);
+                    return;
+                }
+                if (ticket.cancelled) {
+                    return;
+                }
+                enqueue(new Stage(ticket, this.cpu, () -> {
+                    try {
+                        decode.accept(value);
+                    } finally {
+                        ticket.done.countDown();
+                    }
+                }));
+                handedOver = true;
+            } finally {
+                if (!handedOver) {
+                    ticket.done.countDown();
+                }
+            }
+        }));
+        return ticket;
+    }
+
+    // runs the tasks and blocks until all of them finished, failed tasks give null
+    public <T> List<T> invokeAll(Object owner, Priority priority, Resource resource, List<? extends Callable<T>> tasks)
+            throws InterruptedException {
+        List<T> results = new ArrayList<>(tasks.size());
+        List<Ticket> tickets = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            results.add(null);
+            int index = i;
+            Callable<T> task = tasks.get(i);
+            tickets.add(submit(owner, priority, resource, () -> {
+                try {
+                    T result = task.call();
+                    synchronized (results) {
+                        results.set(index, result);
+                    }
+                } catch (Exception ex) {
+                    log.error("Task of {} failed: ", owner, ex);
+                }
+            }));
+        }
+        try {
+            for (Ticket ticket : tickets) {
+                ticket.await();
+            }
+        } catch (InterruptedException ex) {
+            tickets.forEach(Ticket::cancel);
+            throw ex;
+        }
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    // drops every queued ticket of the owner, typically when a view is closed
+    public void cancelAll(Object owner) {
+        for (Pool pool : List.of(this.io, this.cpu)) {
+            List<Ticket> stale = new ArrayList<>();
+            pool.lock.lock();
+            try {
+                for (ArrayDeque<Stage> queue : pool.queues) {
+                    for (Stage stage : queue) {
+                        if (stage.ticket().owner == owner) {
+                            stale.add(stage.ticket());
+                        }
+                    }
+                }
+            } finally {
+                pool.lock.unlock();
+            }
+            stale.forEach(this::cancel);
+        }
+    }
+
+    public List<QueueStats> getStats() {
+        List<QueueStats> stats = new ArrayList<>();
+        for (Pool pool : List.of(this.io, this.cpu)) {
+            pool.lock.lock();
+            try {
+                for (Priority priority : Priority.values()) {
+                    int p = priority.ordinal();
+                    stats.add(new QueueStats(
+                            pool.resource,
+                            priority,
+                            pool.queues.get(p).size(),
+                            pool.submitted[p],
+                            pool.completed[p],
+                            pool.cancelled[p]
+                    ));
+                }
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+        return stats;
+    }
+
+    public int getQueueDepth(Resource resource) {
+        Pool pool = pool(resource);
+        pool.lock.lock();
+        try {
+            return pool.queues.stream().mapToInt(ArrayDeque::size).sum();
+        } finally {
+            pool.lock.unlock();
+        }
+    }
+
+    public int getRunning(Resource resource) {
+        Pool pool = pool(resource);
+        pool.lock.lock();
+        try {
+            return pool.running;
+        } finally {
+            pool.lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        for (Pool pool : List.of(this.io, this.cpu)) {
+            pool.lock.lock();
+            try {
+                pool.shutdown = true;
+                pool.available.signalAll();
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+    }
+
+    // a running stage is left alone, it releases the ticket itself once it is done
+    private void cancel(Ticket ticket) {
+        ticket.cancelled = true;
+        for (Pool pool : List.of(this.io, this.cpu)) {
+            pool.lock.lock();
+            try {
+                Stage stage = ticket.queued;
+                if (stage != null && stage.pool() == pool
+                        && pool.queues.get(ticket.priority.ordinal()).remove(stage)) {
+                    ticket.queued = null;
+                    pool.cancelled[ticket.priority.ordinal()]++;
+                    ticket.done.countDown();
+                }
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+    }
+
+    private void setPriority(Ticket ticket, Priority priority) {
+        Priority previous = ticket.priority;
+        ticket.priority = priority;
+        for (Pool pool : List.of(this.io, this.cpu)) {
+            pool.lock.lock();
+            try {
+                Stage stage = ticket.queued;
+                if (stage != null && stage.pool() == pool
+                        && pool.queues.get(previous.ordinal()).remove(stage)) {
+                    pool.queues.get(priority.ordinal()).addLast(stage);
+                    pool.submitted[previous.ordinal()]--;
+                    pool.submitted[priority.ordinal()]++;
+                    pool.available.signalAll();
+                }
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+    }
+
+    private void enqueue(Stage stage) {
+        Pool pool = stage.pool();
+        Ticket ticket = stage.ticket();
+        pool.lock.lock();
+        try {
+            if (pool.shutdown || ticket.cancelled) {
+                ticket.done.countDown();
+                return;
+            }
+            int p = ticket.priority.ordinal();
+            pool.queues.get(p).addLast(stage);
+            pool.submitted[p]++;
+            ticket.queued = stage;
+            pool.available.signalAll();
+        } finally {
+            pool.lock.unlock();
+        }
+    }
+
+    private void start(Pool pool, int threads, String name) {
+        for (int i = 0; i < threads; i++) {
+            boolean reserved = i == 0;
+            Thread t = new Thread(() -> work(pool, reserved), name + "-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void work(Pool pool, boolean reserved) {
+        while (true) {
+            Stage stage;
+            pool.lock.lock();
+            try {
+                while ((stage = poll(pool, reserved)) == null) {
+                    if (pool.shutdown) {
+                        return;
+                    }
+                    pool.available.await();
+                }
+                pool.running++;
+            } catch (InterruptedException ex) {
+                return;
+            } finally {
+                pool.lock.unlock();
+            }
+
+            Priority priority = stage.ticket().priority;
+            try {
+                if (stage.ticket().cancelled) {
+                    // cancelled between being taken from the queue and starting
+                    stage.ticket().done.countDown();
+                } else {
+                    CURRENT.set(stage.ticket());
+                    stage.work().run();
+                }
+            } catch (Throwable ex) {
+                // errors too, an out of memory decode must not take the worker, it may be the reserved one
+                log.error("Background task of {} failed: ", stage.ticket().owner, ex);
+            } finally {
+                CURRENT.remove();
+                pool.lock.lock();
+                try {
+                    pool.running--;
+                    pool.completed[priority.ordinal()]++;
+                } finally {
+                    pool.lock.unlock();
+                }
+            }
+        }
+    }
+
+    // highest priority first, the reserved worker only looks at visible pages
+    private static Stage poll(Pool pool, boolean reserved) {
+        int last = reserved ? Priority.VISIBLE_PAGE.ordinal() : Priority.values().length - 1;
+        for (int p = 0; p <= last; p++) {
+            Stage stage = pool.queues.get(p).pollFirst();
+            if (stage != null) {
+                stage.ticket().queued = null;
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private Pool pool(Resource resource) {
+        return resource == Resource.IO ? this.io : this.cpu;
+    }
+}
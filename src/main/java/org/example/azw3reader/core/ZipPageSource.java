@@ -0,0 +1,371 @@
+package org.example.azw3reader.core;
+
+import javafx.scene.image.Image;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Pages of a CBZ/ZIP archive. The central directory is read once into a few
+// primitive arrays and every page is then read straight from its offset on a
+// single shared channel, positional reads on a FileChannel are thread safe.
+public class ZipPageSource implements PageSource {
+    private static final Logger log = LoggerFactory.getLogger(ZipPageSource.class);
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_EXTRA_FIELD = 0x0001;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final String COMIC_INFO = "comicinfo.xml";
+    private static final List<String> IMAGE_EXTENSIONS = List.of(".jpg", ".jpeg", ".png", ".gif", ".bmp");
+    private static final Pattern TITLE = Pattern.compile("<Title>(.*?)</Title>", Pattern.DOTALL);
+    private static final Pattern MANGA = Pattern.compile("<Manga>(.*?)</Manga>", Pattern.DOTALL);
+
+    private record Entry(
+            String name,
+            long headerOffset,
+            long compressedSize,
+            long uncompressedSize,
+            int method
+    ){}
+
+    private final File file;
+    // shared by every reader thread. A FileChannel is closed for all of them
+    // when one thread is interrupted during a read, so readers must never be
+    // interrupted: no shutdownNow, no Future.cancel(true), cancel queued work instead.
+    private final FileChannel channel;
+    private final String title;
+    private final boolean leftToRight;
+    private final long[] headerOffsets;
+    private final long[] compressedSizes;
+    private final int[] uncompressedSizes;
+    private final byte[] methods;
+
+    private ZipPageSource(File file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+
+        List<Entry> pages = new ArrayList<>();
+        Entry comicInfo = null;
+        for (Entry entry : readCentralDirectory()) {
+            String name = entry.name().toLowerCase(Locale.ROOT);
+            if (name.endsWith("/") || name.startsWith("__macosx/")) {
+                continue;
+            }
+            if (name.equals(COMIC_INFO) || name.endsWith("/" + COMIC_INFO)) {
+                comicInfo = entry;
+            } else if (IMAGE_EXTENSIONS.stream().anyMatch(name::endsWith) && entry.uncompressedSize() < Integer.MAX_VALUE) {
+                pages.add(entry);
+            }
+        }
+        pages.sort((a, b) -> compareNatural(a.name(), b.name()));
+
+        int count = pages.size();
+        this.headerOffsets = new long[count];
+        this.compressedSizes = new long[count];
+        this.uncompressedSizes = new int[count];
+        this.methods = new byte[count];
+        for (int i = 0; i < count; i++) {
+            Entry entry = pages.get(i);
+            this.headerOffsets[i] = entry.headerOffset();
+            this.compressedSizes[i] = entry.compressedSize();
+            this.uncompressedSizes[i] = (int)entry.uncompressedSize();
+            this.methods[i] = (byte)entry.method();
+        }
+
+        String fileName = file.getName();
+        int extension = fileName.lastIndexOf('.');
+        String comicTitle = extension > 0 ? fileName.substring(0, extension) : fileName;
+        boolean comicLeftToRight = true;
+        if (comicInfo != null && comicInfo.uncompressedSize() < Integer.MAX_VALUE) {
+            String xml = new String(readEntry(
+                    comicInfo.headerOffset(),
+                    comicInfo.compressedSize(),
+                    (int)comicInfo.uncompressedSize(),
+                    comicInfo.method()
+            ), StandardCharsets.UTF_8);
+            Matcher titleMatcher = TITLE.matcher(xml);
+            if (titleMatcher.find() && !titleMatcher.group(1).isBlank()) {
+                comicTitle = titleMatcher.group(1).trim();
+            }
+            Matcher mangaMatcher = MANGA.matcher(xml);
+            if (mangaMatcher.find()) {
+                comicLeftToRight = !mangaMatcher.group(1).trim().equals("YesAndRightToLeft");
+            }
+        }
+        this.title = comicTitle;
+        this.leftToRight = comicLeftToRight;
+    }
+
+    public static ZipPageSource of(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new ZipPageSource(file, channel);
+        } catch (IOException | RuntimeException ex) {
+            log.error(ex.getMessage());
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long size = this.channel.size();
+        int tailLen = (int)Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(size - tailLen, tailLen);
+        int end = -1;
+        for (int i = tailLen - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("End of central directory not found in " + this.file.getName());
+        }
+
+        long entryCount = Short.toUnsignedLong(tail.getShort(end + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(end + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(end + 16));
+        boolean zip64 = entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL;
+        int locator = end - ZIP64_LOCATOR_SIZE;
+        if (zip64 && locator >= 0 && tail.getInt(locator) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+            ByteBuffer zip64End = read(tail.getLong(locator + 8), ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE);
+            if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new IOException("Invalid zip64 end of central directory in " + this.file.getName());
+            }
+            entryCount = zip64End.getLong(32);
+            directorySize = zip64End.getLong(40);
+            directoryOffset = zip64End.getLong(48);
+        }
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Central directory too large in " + this.file.getName());
+        }
+
+        ByteBuffer directory = read(directoryOffset, (int)directorySize);
+        List<Entry> entries = new ArrayList<>((int)Math.min(entryCount, 1 << 16));
+        int pos = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (pos + CENTRAL_DIRECTORY_ENTRY_SIZE > directorySize || directory.getInt(pos) != CENTRAL_DIRECTORY_ENTRY) {
+                throw new IOException("Invalid central directory entry in " + this.file.getName());
+            }
+            int flags = Short.toUnsignedInt(directory.getShort(pos + 8));
+            int method = Short.toUnsignedInt(directory.getShort(pos + 10));
+            long compressedSize = Integer.toUnsignedLong(directory.getInt(pos + 20));
+            long uncompressedSize = Integer.toUnsignedLong(directory.getInt(pos + 24));
+            int nameLen = Short.toUnsignedInt(directory.getShort(pos + 28));
+            int extraLen = Short.toUnsignedInt(directory.getShort(pos + 30));
+            int commentLen = Short.toUnsignedInt(directory.getShort(pos + 32));
+            long headerOffset = Integer.toUnsignedLong(directory.getInt(pos + 42));
+
+            byte[] nameBytes = new byte[nameLen];
+            directory.get(pos + CENTRAL_DIRECTORY_ENTRY_SIZE, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // sizes and offset that don't fit in 32 bits are moved to the zip64 extra field, in this order
+            int extra = pos + CENTRAL_DIRECTORY_ENTRY_SIZE + nameLen;
+            int extraEnd = extra + extraLen;
+            while (extra + 4 <= extraEnd) {
+                int id = Short.toUnsignedInt(directory.getShort(extra));
+                int len = Short.toUnsignedInt(directory.getShort(extra + 2));
+                if (id == ZIP64_EXTRA_FIELD) {
+                    int field = extra + 4;
+                    if (uncompressedSize == 0xFFFFFFFFL) {
+                        uncompressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (headerOffset == 0xFFFFFFFFL) {
+                        headerOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + len;
+            }
+
+            boolean encrypted = (flags & 0x0001) == 0x0001;
+            if (!encrypted) {
+                entries.add(new Entry(name, headerOffset, compressedSize, uncompressedSize, method));
+            }
+            pos += CENTRAL_DIRECTORY_ENTRY_SIZE + nameLen + extraLen + commentLen;
+        }
+        return entries;
+    }
+
+    private byte[] readEntry(long headerOffset, long compressedSize, int uncompressedSize, int method) throws IOException {
+        ByteBuffer header = read(headerOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new IOException("Invalid local file header at " + headerOffset);
+        }
+        // the local extra field can differ from the one in the central directory
+        int nameLen = Short.toUnsignedInt(header.getShort(26));
+        int extraLen = Short.toUnsignedInt(header.getShort(28));
+        long dataOffset = headerOffset + LOCAL_FILE_HEADER_SIZE + nameLen + extraLen;
+        if (compressedSize > Integer.MAX_VALUE) {
+            throw new IOException("Entry too large at " + headerOffset);
+        }
+        byte[] data = read(dataOffset, (int)compressedSize).array();
+        if (method == STORED) {
+            return data;
+        }
+        if (method != DEFLATED) {
+            throw new IOException("Unsupported compression method " + method);
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[uncompressedSize];
+            int len = 0;
+            while (len < out.length) {
+                int inflated = inflater.inflate(out, len, out.length - len);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += inflated;
+            }
+            if (len != out.length) {
+                throw new IOException("Truncated entry at " + headerOffset);
+            }
+            return out;
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private ByteBuffer read(long position, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            int read = this.channel.read(buf, position + buf.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + this.file.getName());
+            }
+        }
+        return buf;
+    }
+
+    // orders "page2" before "page10"
+    private static int compareNatural(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                while (i < a.length() - 1 && a.charAt(i) == '0' && Character.isDigit(a.charAt(i + 1))) {
+                    i++;
+                }
+                while (j < b.length() - 1 && b.charAt(j) == '0' && Character.isDigit(b.charAt(j + 1))) {
+                    j++;
+                }
+                int startA = i;
+                int startB = j;
+                while (i < a.length() && Character.isDigit(a.charAt(i))) {
+                    i++;
+                }
+                while (j < b.length() && Character.isDigit(b.charAt(j))) {
+                    j++;
+                }
+                int lenA = i - startA;
+                int lenB = j - startB;
+                if (lenA != lenB) {
+                    return lenA - lenB;
+                }
+                int cmp = a.substring(startA, i).compareTo(b.substring(startB, j));
+                if (cmp != 0) {
+                    return cmp;
+                }
+            } else {
+                int cmp = Character.compare(Character.toLowerCase(ca), Character.toLowerCase(cb));
+                if (cmp != 0) {
+                    return cmp;
+                }
+                i++;
+                j++;
+            }
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    @Override
+    public File getFile() {
+        return this.file;
+    }
+
+    @Override
+    public String getTitle() {
+        return this.title;
+    }
+
+    @Override
+    public int getPageCount() {
+        return this.headerOffsets.length;
+    }
+
+    @Override
+    public boolean leftToRight() {
+        return this.leftToRight;
+    }
+
+    @Override
+    public boolean hasSeparateCover() {
+        return false;
+    }
+
+    @Override
+    public Image getCover() {
+        return getPage(0);
+    }
+
+    @Override
+    public byte[] getPageBytes(int index) {
+        if (index < 0 || index >= this.headerOffsets.length) {
+            return null;
+        }
+        try {
+            return readEntry(
+                    this.headerOffsets[index],
+                    this.compressedSizes[index],
+                    this.uncompressedSizes[index],
+                    this.methods[index]
+            );
+        } catch (IOException ex) {
+            log.error("Could not read book file: ", ex);
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException ex) {
+            log.error("Could not close book file: ", ex);
+        }
+    }
+}
@@ -1,38 +1,83 @@
 package org.example.azw3reader.gui;
 
+import javafx.application.Platform;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.geometry.Dimension2D;
 import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.Cursor;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.KeyCode;
-import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
-import org.example.azw3reader.core.Book;
+import org.example.azw3reader.core.PageSource;
+import org.example.azw3reader.core.TaskScheduler;
 import org.example.azw3reader.utils.ImageUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Shows the book one spread at a time. Nothing is decoded on the FX thread:
+// a spread is shown at once with whatever is at hand, the embedded thumbnail
+// for the cover and cached page strip thumbnails for pages, scaled up, and the
+// full resolution images replace them as they are decoded in the background.
+// The spreads around the current one are decoded ahead, so paging through the
+// book normally finds them ready.
 public class BookReader extends HBox {
     private static final int MIN_PIXELS = 100;
+    private static final int COVER = -1;
+    private static final int DECODED_CAPACITY = 8;
     private static final Logger log = LoggerFactory.getLogger(BookReader.class);
-    private final Book book;
+    private final PageSource book;
+    private final TaskScheduler scheduler;
+    private final ThumbnailCache thumbnails;
     private final ImageView left;
     private final ImageView right;
     private final Image placeholder;
+    private final Image coverPreview;
     private final boolean separateCover;
     private final ObjectProperty<Boolean> isShiftDown = new SimpleObjectProperty<>(false);
+    private final Map<Integer, Image> decoded = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest) {
+            return size() > DECODED_CAPACITY;
+        }
+    };
+    private final Map<Integer, TaskScheduler.Ticket> loading = new HashMap<>();
+    private final Map<Integer, List<Consumer<Image>>> waiting = new HashMap<>();
+    // thumbnails requested for pages on screen that had none cached
+    private final Map<Integer, Consumer<Image>> thumbnailRequests = new HashMap<>();
+    // views that show a preview or placeholder until their page is decoded
+    private final Set<ImageView> previews = new HashSet<>();
     private int currentPage;
+    // bumped on every page turn, decodes finishing for an older spread are not shown
+    private int generation;
+    private boolean closed;
 
 
-    public BookReader(HBox parent, Book book) {
+    public BookReader(HBox parent, PageSource book, TaskScheduler scheduler, ThumbnailCache thumbnails) {
         this.book = book;
-        Image page = book.getPage(0);
-        this.placeholder = ImageUtils.generatePlaceholder(page.getWidth(), page.getHeight());
-        this.separateCover = book.getCoverIndex() > 0;
+        this.scheduler = scheduler;
+        this.thumbnails = thumbnails;
+        // only the header of the first page is read, it is decoded in the background like any other
+        Dimension2D pageSize = book.getPageSize(0);
+        this.placeholder = pageSize != null && pageSize.getWidth() > 0
+                ? ImageUtils.generatePlaceholder(pageSize.getWidth(), pageSize.getHeight())
+                : ImageUtils.generatePlaceholder(2, 3);
+        this.coverPreview = book.getCoverThumbnail();
+        this.separateCover = book.hasSeparateCover();
         this.currentPage = this.separateCover ? -1 : 0;
         Stage s = (Stage)parent.getScene().getWindow();
         String currentTitle = s.getTitle();
@@ -56,23 +101,23 @@ public class BookReader extends HBox {
         if (book.leftToRight()) {
             right.setOnMouseClicked(e -> {
                 if (!this.isShiftDown.get()) {
-                    this.next(e);
+                    this.next();
                 }
             });
             left.setOnMouseClicked(e -> {
                 if (!this.isShiftDown.get()) {
-                    this.previous(e);
+                    this.previous();
                 }
             });
         } else {
             right.setOnMouseClicked(e -> {
                 if (!this.isShiftDown.get()) {
-                    this.previous(e);
+                    this.previous();
                 }
             });
             left.setOnMouseClicked(e -> {
                 if (!this.isShiftDown.get()) {
-                    this.next(e);
+                    this.next();
                 }
             });
         }
@@ -94,102 +139,258 @@ public class BookReader extends HBox {
         });
 
 
-        displayPages(this.book.getCover());
+        displayPages(COVER);
+    }
+
+    // true once every page on screen is shown at full resolution
+    public boolean isFullyLoaded() {
+        return this.previews.isEmpty();
+    }
+
+    public void close() {
+        this.closed = true;
+        this.scheduler.cancelAll(this);
+        if (this.thumbnails != null) {
+            this.thumbnailRequests.forEach(this.thumbnails::cancel);
+        }
+        this.thumbnailRequests.clear();
+        this.loading.clear();
+        this.waiting.clear();
+        this.decoded.clear();
+    }
+
+    private void displayPages(int current) {
+        this.generation++;
+        show(this.left, current);
+        showPlaceholder(this.right);
+        prefetch(Set.of(current));
     }
 
-    private void displayPages(Image current) {
-        if (current != null && !current.isError()) {
-            this.left.setImage(current);
-            setZoomListeners(left);
+    private void displayPages(int current, int next) {
+        this.generation++;
+        if (book.leftToRight()) {
+            show(this.left, current);
+            show(this.right, next);
         } else {
-            this.left.setImage(placeholder);
-            removeZoomListeners(this.left);
+            show(this.right, current);
+            show(this.left, next);
         }
-        this.right.setImage(placeholder);
-        removeZoomListeners(this.right);
+        prefetch(Set.of(current, next));
     }
 
-    private void displayPages(Image current, Image next) {
-        if (current != null && !current.isError()) {
-            if (book.leftToRight()) {
-                this.left.setImage(current);
-                setZoomListeners(this.left);
-            } else {
-                this.right.setImage(current);
-                setZoomListeners(this.right);
+    // full image when it is decoded already, a scaled up preview until it is
+    private void show(ImageView view, int page) {
+        if (page != COVER && (page < 0 || page >= this.book.getPageCount())) {
+            showPlaceholder(view);
+            return;
+        }
+        Image full = this.decoded.get(page);
+        if (full != null) {
+            showImage(view, full);
+            return;
+        }
+        Image preview = page == COVER
+                ? this.coverPreview
+                : this.thumbnails != null ? this.thumbnails.get(page) : null;
+        view.setImage(preview != null ? preview : this.placeholder);
+        removeZoomListeners(view);
+        this.previews.add(view);
+        int shownGeneration = this.generation;
+        if (preview == null && page != COVER && this.thumbnails != null) {
+            // a low resolution stand in usually decodes well before the full page
+            Consumer<Image> onThumbnail = thumbnail -> {
+                this.thumbnailRequests.remove(page);
+                if (this.generation == shownGeneration && view.getImage() == this.placeholder) {
+                    view.setImage(thumbnail);
+                }
+            };
+            this.thumbnails.request(page, TaskScheduler.Priority.VISIBLE_PAGE, onThumbnail);
+            Consumer<Image> previous = this.thumbnailRequests.put(page, onThumbnail);
+            if (previous != null) {
+                this.thumbnails.cancel(page, previous);
             }
-        } else {
-            if (book.leftToRight()) {
-                this.left.setImage(this.placeholder);
-                removeZoomListeners(this.left);
+        }
+        load(page, TaskScheduler.Priority.VISIBLE_PAGE, image -> {
+            if (this.generation != shownGeneration) {
+                return;
+            }
+            cancelThumbnail(page);
+            if (image != null) {
+                showImage(view, image);
             } else {
-                this.right.setImage(this.placeholder);
-                removeZoomListeners(this.right);
+                // nothing better is coming, keep the preview
+                this.previews.remove(view);
             }
+        });
+    }
+
+    private void showImage(ImageView view, Image image) {
+        view.setImage(image);
+        setZoomListeners(view);
+        this.previews.remove(view);
+    }
+
+    private void showPlaceholder(ImageView view) {
+        view.setImage(this.placeholder);
+        removeZoomListeners(view);
+        this.previews.remove(view);
+    }
+
+    private void cancelThumbnail(int page) {
+        Consumer<Image> onThumbnail = this.thumbnailRequests.remove(page);
+        if (onThumbnail != null) {
+            this.thumbnails.cancel(page, onThumbnail);
         }
-        if (next != null && !next.isError()) {
-            if (book.leftToRight()) {
-                this.right.setImage(next);
-                setZoomListeners(this.right);
-            } else {
-                this.left.setImage(next);
-                setZoomListeners(this.left);
+    }
+
+    // the spreads before and after the current one. Visible page work runs in
+    // order, so work for spreads the user has moved past is dropped or demoted
+    // and cannot hold up the spread now on screen.
+    private void prefetch(Set<Integer> shown) {
+        int first = Math.max(this.currentPage, 0);
+        Iterator<Map.Entry<Integer, TaskScheduler.Ticket>> it = this.loading.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, TaskScheduler.Ticket> entry = it.next();
+            int page = entry.getKey();
+            if (shown.contains(page)) {
+                continue;
             }
-        } else {
-            if (book.leftToRight()) {
-                this.right.setImage(this.placeholder);
-                removeZoomListeners(this.right);
+            TaskScheduler.Ticket ticket = entry.getValue();
+            if (page != COVER && page >= first - 2 && page <= first + 3) {
+                if (ticket.getPriority().ordinal() < TaskScheduler.Priority.PREFETCH.ordinal()) {
+                    ticket.setPriority(TaskScheduler.Priority.PREFETCH);
+                }
             } else {
-                this.left.setImage(this.placeholder);
-                removeZoomListeners(this.left);
+                ticket.cancel();
+                this.waiting.remove(page);
+                it.remove();
+            }
+        }
+        for (Integer page : List.copyOf(this.thumbnailRequests.keySet())) {
+            if (!shown.contains(page)) {
+                cancelThumbnail(page);
             }
         }
+        for (int page = first - 2; page <= first + 3; page++) {
+            if (page >= 0 && page < this.book.getPageCount() && !this.decoded.containsKey(page)) {
+                load(page, TaskScheduler.Priority.PREFETCH, null);
+            }
+        }
+    }
+
+    private void load(int page, TaskScheduler.Priority priority, Consumer<Image> onLoaded) {
+        if (this.closed) {
+            return;
+        }
+        if (onLoaded != null) {
+            this.waiting.computeIfAbsent(page, _ -> new ArrayList<>(1)).add(onLoaded);
+        }
+        TaskScheduler.Ticket ticket = this.loading.get(page);
+        if (ticket != null) {
+            if (priority.ordinal() < ticket.getPriority().ordinal()) {
+                ticket.setPriority(priority);
+            }
+            return;
+        }
+        // read on the I/O workers, decoded on the CPU workers, the cover too
+        ticket = this.scheduler.submit(this, priority, () -> {
+            try {
+                return page == COVER ? this.book.getCoverBytes() : this.book.getPageBytes(page);
+            } catch (RuntimeException ex) {
+                log.error("Could not read page {} ", page, ex);
+                return null;
+            }
+        }, bytes -> loaded(page, TaskScheduler.current(), bytes == null ? null : new Image(new ByteArrayInputStream(bytes))));
+        this.loading.put(page, ticket);
+    }
+
+    private void loaded(int page, TaskScheduler.Ticket ticket, Image image) {
+        Platform.runLater(() -> {
+            // a dropped ticket that was already running may finish after the page was asked for again
+            this.loading.remove(page, ticket);
+            List<Consumer<Image>> callbacks = this.waiting.remove(page);
+            if (this.closed) {
+                return;
+            }
+            Image result = image == null || image.isError() ? null : image;
+            if (result != null) {
+                this.decoded.put(page, result);
+            }
+            if (callbacks != null) {
+                callbacks.forEach(callback -> callback.accept(result));
+            }
+        });
+    }
+
+    public void goTo(int page) {
+        if (page < 0 || page >= this.book.getPageCount()) {
+            return;
+        }
+        if (page == 0) {
+            this.currentPage = 0;
+            displayPages(0);
+            return;
+        }
+        // spreads after the first page start on odd pages
+        this.currentPage = page % 2 == 1 ? page : page - 1;
+        displayPages(this.currentPage, this.currentPage + 1);
     }
 
-    private void next(MouseEvent mouseEvent) {
+    public void next() {
         int pageCount = this.book.getPageCount();
-        boolean canMoveNext = false;
+        int from = this.currentPage;
         if (this.currentPage == -1 || (this.currentPage == 0 && this.currentPage + 1 < pageCount)) {
             this.currentPage += 1;
-            canMoveNext = true;
         } else if (this.currentPage > 0 && this.currentPage + 2 < pageCount) {
             this.currentPage += 2;
-            canMoveNext = true;
+        } else {
+            return;
         }
-        if (canMoveNext) {
-            Image current = this.book.getPage(this.currentPage);
-            if (this.currentPage == 0) {
-                displayPages(current);
+        if (this.currentPage == 0) {
+            displayPages(0);
+        } else {
+            displayPages(this.currentPage, this.currentPage + 1);
+            returnIfBlank(from, this.currentPage);
+        }
+    }
+
+    // EXTH 125 can count trailing records that are no images, a spread where
+    // no page decodes is one of those and the reader goes back to where it came from
+    private void returnIfBlank(int from, int spread) {
+        List<Integer> pages = new ArrayList<>(2);
+        for (int page = spread; page <= spread + 1 && page < this.book.getPageCount(); page++) {
+            if (this.decoded.containsKey(page)) {
                 return;
             }
-            Image next = this.book.getPage(this.currentPage + 1);
-            if ((current != null && !current.isError()) || (next != null && !next.isError())) {
-                displayPages(current, next);
-            } else {
-                currentPage -= 2;
-            }
+            pages.add(page);
+        }
+        int shownGeneration = this.generation;
+        int[] blank = {0};
+        for (int page : pages) {
+            load(page, TaskScheduler.Priority.VISIBLE_PAGE, image -> {
+                if (image != null || ++blank[0] < pages.size() || this.generation != shownGeneration) {
+                    return;
+                }
+                this.currentPage = from;
+                if (from == 0) {
+                    displayPages(0);
+                } else {
+                    displayPages(from, from + 1);
+                }
+            });
         }
     }
 
-    private void previous(MouseEvent mouseEvent) {
+    public void previous() {
         if (this.currentPage - 1 == -1 && this.separateCover) {
             this.currentPage -= 1;
-            Image cover = this.book.getCover();
-            displayPages(cover);
+            displayPages(COVER);
         } else if (this.currentPage - 1 == 0) {
             this.currentPage -= 1;
-            if (this.separateCover) {
-                Image current = this.book.getPage(this.currentPage);
-                displayPages(current);
-            } else {
-                Image cover = this.book.getCover();
-                displayPages(cover);
-            }
+            displayPages(this.separateCover ? this.currentPage : COVER);
         } else if (this.currentPage - 1 > 0) {
             this.currentPage -= 2;
-            Image current = this.book.getPage(this.currentPage);
-            Image next = this.book.getPage(this.currentPage + 1);
-            displayPages(current, next);
+            displayPages(this.currentPage, this.currentPage + 1);
         }
     }
 
@@ -1,20 +1,46 @@
 package org.example.azw3reader.gui;
 
 import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
+import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.RadioMenuItem;
+import javafx.scene.control.TextArea;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Paint;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
+import javafx.stage.Stage;
 import javafx.util.Duration;
+import javafx.util.StringConverter;
 import org.example.azw3reader.core.Azw3Metadata;
 import org.example.azw3reader.core.Book;
+import org.example.azw3reader.core.BookText;
+import org.example.azw3reader.core.FingerprintIndex;
+import org.example.azw3reader.core.Library;
+import org.example.azw3reader.core.LibraryIndex;
+import org.example.azw3reader.core.LibraryWatcher;
+import org.example.azw3reader.core.PageSource;
+import org.example.azw3reader.core.TaskScheduler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class LibraryController {
     private static final Logger log = LoggerFactory.getLogger(LibraryController.class);
@@ -24,54 +50,385 @@ public class LibraryController {
     @FXML
     protected HBox bookContainer;
 
+    @FXML
+    protected VBox readerContainer;
+
+    @FXML
+    protected RadioMenuItem scrollMode;
+
+    @FXML
+    protected RadioMenuItem textMode;
+
+    @FXML
+    protected CheckMenuItem pageStripVisible;
+
+    protected PageSource book;
+
     protected BookReader bookReader;
 
+    protected ScrollReader scrollReader;
+
+    protected TextReader textReader;
+
+    protected ThumbnailCache thumbnailCache;
+
+    protected ThumbnailStrip thumbnailStrip;
+
+    protected final Library library = new Library();
+
+    protected final LibraryIndex libraryIndex = new LibraryIndex();
+
+    protected final ObservableList<Library.Entry> libraryEntries = FXCollections.observableArrayList();
+
+    protected ListView<Library.Entry> libraryList;
+
+    protected ComboBox<LibraryIndex.StringColumn> librarySort;
+
+    protected ComboBox<String> languageFilter;
+
+    protected VBox libraryPane;
+
+    protected LibraryWatcher libraryWatcher;
+
+    protected final TaskScheduler scheduler = new TaskScheduler(
+            3,
+            Math.max(2, Runtime.getRuntime().availableProcessors() - 1)
+    );
+
+    // kept between runs, so only new and changed books are hashed at startup
+    protected final FingerprintIndex fingerprintIndex = new FingerprintIndex(
+            scheduler,
+            Path.of(System.getProperty("user.home"), ".azw3reader", "fingerprints.bin")
+    );
+
+    @FXML
+    public void initialize() {
+        libraryList = new ListView<>(libraryEntries);
+        libraryList.setPrefWidth(240);
+        libraryList.setCellFactory(_ -> new ListCell<>() {
+            @Override
+            protected void updateItem(Library.Entry entry, boolean empty) {
+                super.updateItem(entry, empty);
+                setText(empty || entry == null ? null : entry.title());
+            }
+        });
+        libraryList.setOnMouseClicked(e -> {
+            Library.Entry selected = libraryList.getSelectionModel().getSelectedItem();
+            if (e.getClickCount() == 2 && selected != null) {
+                openBook(selected.file());
+            }
+        });
+        librarySort = new ComboBox<>(FXCollections.observableArrayList(
+                LibraryIndex.StringColumn.TITLE,
+                LibraryIndex.StringColumn.AUTHOR,
+                LibraryIndex.StringColumn.PUBLISHER
+        ));
+        librarySort.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(LibraryIndex.StringColumn column) {
+                return column == null ? "" : "Sort by " + column.name().toLowerCase(Locale.ROOT);
+            }
+
+            @Override
+            public LibraryIndex.StringColumn fromString(String text) {
+                return null;
+            }
+        });
+        librarySort.setValue(LibraryIndex.StringColumn.TITLE);
+        librarySort.setMaxWidth(Double.MAX_VALUE);
+        librarySort.setOnAction(_ -> refreshLibrary());
+        languageFilter = new ComboBox<>();
+        languageFilter.setPromptText("All languages");
+        languageFilter.setMaxWidth(Double.MAX_VALUE);
+        languageFilter.setOnAction(_ -> refreshLibrary());
+        VBox.setVgrow(libraryList, Priority.ALWAYS);
+        libraryPane = new VBox(librarySort, languageFilter, libraryList);
+        // the index has to be up to date before the list is refreshed from it
+        library.addListener(libraryIndex::apply);
+        library.addListener(_ -> Platform.runLater(this::refreshLibrary));
+        library.addListener(this::updateFingerprints);
+    }
+
+    private void refreshLibrary() {
+        String language = languageFilter.getValue();
+        List<LibraryIndex.Filter> filters = language == null || language.isEmpty()
+                ? List.of()
+                : List.of(LibraryIndex.Filter.equalTo(LibraryIndex.StringColumn.LANGUAGE, language));
+        libraryEntries.setAll(libraryIndex.query(filters, librarySort.getValue(), true));
+
+        List<String> languages = new ArrayList<>();
+        languages.add("");
+        Map<String, Integer> facets = libraryIndex.facets(LibraryIndex.StringColumn.LANGUAGE, List.of());
+        facets.keySet().stream().filter(value -> !value.isEmpty()).forEach(languages::add);
+        if (!languages.equals(languageFilter.getItems())) {
+            languageFilter.getItems().setAll(languages);
+            languageFilter.setValue(language);
+        }
+    }
+
+    private void updateFingerprints(Library.Change change) {
+        change.removed().forEach(fingerprintIndex::remove);
+        List<File> files = new ArrayList<>();
+        change.added().forEach(entry -> files.add(entry.file()));
+        change.updated().forEach(entry -> files.add(entry.file()));
+        if (files.isEmpty()) {
+            return;
+        }
+        Task<Void> fingerprintTask = new Task<>() {
+            @Override
+            protected Void call() throws InterruptedException {
+                // the library entries keep no headers, they are parsed again here
+                List<Book> books = new ArrayList<>(files.size());
+                try {
+                    for (File file : files) {
+                        try {
+                            books.add(new Book(file, Azw3Metadata.of(file), false));
+                        } catch (IOException ex) {
+                            log.warn("Could not fingerprint {}: {}", file, ex.getMessage());
+                        }
+                    }
+                    fingerprintIndex.index(books);
+                } finally {
+                    books.forEach(Book::close);
+                }
+                return null;
+            }
+        };
+        fingerprintTask.setOnFailed(e -> log.error("Could not fingerprint books ", fingerprintTask.getException()));
+        // only waits for the scheduled fingerprints, it must not take a worker of its own
+        Thread t = new Thread(fingerprintTask);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @FXML
+    protected void onFindDuplicates() {
+        Task<List<FingerprintIndex.Match>> duplicatesTask = new Task<>() {
+            @Override
+            protected List<FingerprintIndex.Match> call() {
+                return fingerprintIndex.findAllDuplicates(0.8);
+            }
+        };
+        duplicatesTask.setOnSucceeded(e -> {
+            StringBuilder report = new StringBuilder();
+            for (FingerprintIndex.Match match : duplicatesTask.getValue()) {
+                report.append(match.exact() ? "identical" : Math.round(match.similarity() * 100) + "%")
+                        .append("  ")
+                        .append(match.file().getName())
+                        .append("  ↔  ")
+                        .append(match.duplicate().getName())
+                        .append('\n');
+            }
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.initOwner(mainContainer.getScene().getWindow());
+            alert.setTitle("Duplicates");
+            alert.setHeaderText(duplicatesTask.getValue().size() + " duplicates among " + fingerprintIndex.size() + " books");
+            TextArea text = new TextArea(report.toString());
+            text.setEditable(false);
+            alert.getDialogPane().setContent(text);
+            alert.show();
+        });
+        scheduler.submit(this, TaskScheduler.Priority.INDEXING, TaskScheduler.Resource.CPU, duplicatesTask);
+    }
+
+    @FXML
+    protected void onAddLibraryFolder() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        File selectedDirectory = directoryChooser.showDialog(mainContainer.getScene().getWindow());
+        if (selectedDirectory == null) {
+            return;
+        }
+        if (libraryWatcher == null) {
+            try {
+                libraryWatcher = new LibraryWatcher(library, scheduler);
+            } catch (IOException ex) {
+                log.error("Could not watch library folders ", ex);
+                showError("Error while watching the folder. Please try again!");
+                return;
+            }
+        }
+        mainContainer.setLeft(libraryPane);
+
+        LibraryWatcher watcher = libraryWatcher;
+        Task<Void> scanTask = new Task<>() {
+            @Override
+            protected Void call() throws IOException {
+                watcher.addRoot(selectedDirectory.toPath());
+                return null;
+            }
+        };
+        scanTask.setOnFailed(e -> {
+            log.error("Could not scan library folder ", scanTask.getException());
+            showError("Error while scanning the folder. Please try again!");
+        });
+        // only waits for the scheduled parsing, it must not take a worker of its own
+        new Thread(scanTask).start();
+    }
+
     @FXML
     protected void onOpenBook() {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.getExtensionFilters().add(
-                new FileChooser.ExtensionFilter("AZW3 files", "*.azw3")
+        fileChooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("Books", "*.azw3", "*.cbz", "*.zip"),
+                new FileChooser.ExtensionFilter("AZW3 files", "*.azw3"),
+                new FileChooser.ExtensionFilter("CBZ files", "*.cbz", "*.zip")
         );
         File selectedFile = fileChooser.showOpenDialog(mainContainer.getScene().getWindow());
+        if (selectedFile != null) {
+            openBook(selectedFile);
+        }
+    }
+
+    private void openBook(File selectedFile) {
         log.info(selectedFile.getName());
 
-        Task<Book> openBookTask = new Task<>() {
+        Task<PageSource> openBookTask = new Task<>() {
             @Override
-            protected Book call() throws IOException {
-                Azw3Metadata metadata = Azw3Metadata.of(selectedFile);
-                return new Book(selectedFile, metadata);
+            protected PageSource call() throws IOException {
+                return PageSource.open(selectedFile);
             }
         };
         openBookTask.setOnFailed(e -> {
             Throwable exception = openBookTask.getException();
-            PauseTransition hideNotification = new PauseTransition(Duration.seconds(10));
             if (exception instanceof IOException) {
-                Label warning = new Label("Error while reading the file. Please try again!");
-                HBox hbox = new HBox(warning);
-                hbox.setBackground(new Background(new BackgroundFill(Paint.valueOf("red"), null, null)));
-                mainContainer.setBottom(hbox);
+                showError("Error while reading the file. Please try again!");
             } else {
-                Label warning = new Label("Unknown error!");
                 log.error("Found exception ", exception);
-                HBox hbox = new HBox(warning);
-                hbox.setBackground(new Background(new BackgroundFill(Paint.valueOf("red"), null, null)));
-                mainContainer.setBottom(hbox);
+                showError("Unknown error!");
             }
-            hideNotification.setOnFinished(event -> mainContainer.setBottom(null));
-            hideNotification.play();
         });
 
         openBookTask.setOnSucceeded(event -> {
-            bookContainer.getChildren().clear();
-            Book book = openBookTask.getValue();
-            bookReader = new BookReader(bookContainer, book);
+            if (thumbnailCache != null) {
+                thumbnailCache.close();
+            }
+            PageSource previous = book;
+            book = openBookTask.getValue();
+            thumbnailCache = new ThumbnailCache(book, scheduler);
+            showBook();
+            showPageStrip();
+            if (previous != null) {
+                previous.close();
+            }
+        });
+
+        scheduler.submit(this, TaskScheduler.Priority.VISIBLE_PAGE, TaskScheduler.Resource.IO, openBookTask);
+    }
+
+    private void showError(String message) {
+        PauseTransition hideNotification = new PauseTransition(Duration.seconds(10));
+        Label warning = new Label(message);
+        HBox hbox = new HBox(warning);
+        hbox.setBackground(new Background(new BackgroundFill(Paint.valueOf("red"), null, null)));
+        mainContainer.setBottom(hbox);
+        hideNotification.setOnFinished(event -> mainContainer.setBottom(null));
+        hideNotification.play();
+    }
+
+    @FXML
+    protected void onReadingModeChanged() {
+        if (book != null) {
+            showBook();
+        }
+    }
+
+    @FXML
+    protected void onPageStripToggled() {
+        showPageStrip();
+    }
+
+    @FXML
+    protected void onShowPageGrid() {
+        if (thumbnailCache == null) {
+            return;
+        }
+        Stage gridStage = new Stage();
+        ThumbnailGrid grid = new ThumbnailGrid(thumbnailCache, page -> {
+            goTo(page);
+            gridStage.close();
+        });
+        gridStage.initOwner(mainContainer.getScene().getWindow());
+        gridStage.setTitle("Pages");
+        gridStage.setScene(new Scene(grid, 800, 600));
+        gridStage.show();
+    }
+
+    private void goTo(int page) {
+        if (bookReader != null) {
+            bookReader.goTo(page);
+        } else if (scrollReader != null) {
+            scrollReader.goTo(page);
+        }
+    }
+
+    private void showPageStrip() {
+        if (thumbnailStrip != null) {
+            readerContainer.getChildren().remove(thumbnailStrip);
+            thumbnailStrip = null;
+        }
+        if (thumbnailCache != null && pageStripVisible.isSelected()) {
+            thumbnailStrip = new ThumbnailStrip(thumbnailCache, this::goTo);
+            readerContainer.getChildren().add(thumbnailStrip);
+        }
+    }
+
+    private void showBook() {
+        bookContainer.getChildren().clear();
+        bookContainer.getScene().setOnKeyPressed(null);
+        bookContainer.getScene().setOnKeyReleased(null);
+        if (scrollReader != null) {
+            scrollReader.close();
+            scrollReader = null;
+        }
+        if (textReader != null) {
+            textReader.close();
+            textReader = null;
+        }
+        if (bookReader != null) {
+            bookReader.close();
+            bookReader = null;
+        }
+
+        if (textMode.isSelected() || book.getPageCount() <= 0) {
+            showText();
+        } else if (scrollMode.isSelected()) {
+            scrollReader = new ScrollReader(bookContainer, book, scheduler);
+            HBox.setHgrow(scrollReader, Priority.ALWAYS);
+            bookContainer.getChildren().add(scrollReader);
+        } else {
+            bookReader = new BookReader(bookContainer, book, scheduler, thumbnailCache);
             Region spacerBegin = new Region();
             Region spacerEnd = new Region();
             HBox.setHgrow(spacerBegin, Priority.ALWAYS);
             HBox.setHgrow(spacerEnd, Priority.ALWAYS);
             bookContainer.getChildren().addAll(spacerBegin, bookReader, spacerEnd);
-        });
+        }
+    }
 
-        new Thread(openBookTask).start();
+    private void showText() {
+        if (!(book instanceof Book textBook)) {
+            showError("This book has no reflowable text!");
+            return;
+        }
+        Task<BookText> textTask = new Task<>() {
+            @Override
+            protected BookText call() throws IOException {
+                return BookText.open(textBook);
+            }
+        };
+        textTask.setOnSucceeded(e -> {
+            // the book or the reading mode may have changed while the text was opened
+            if (book != textBook || bookReader != null || scrollReader != null || textReader != null) {
+                return;
+            }
+            textReader = new TextReader(bookContainer, textBook, textTask.getValue(), scheduler);
+            HBox.setHgrow(textReader, Priority.ALWAYS);
+            bookContainer.getChildren().add(textReader);
+        });
+        textTask.setOnFailed(e -> {
+            log.error("Could not read book text ", textTask.getException());
+            showError("Error while reading the text of the book!");
+        });
+        scheduler.submit(this, TaskScheduler.Priority.VISIBLE_PAGE, TaskScheduler.Resource.IO, textTask);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,294 @@
+package org.example.azw3reader.gui;
+
+import javafx.application.Platform;
+import javafx.geometry.Dimension2D;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.stage.Stage;
+import org.example.azw3reader.core.PageSource;
+import org.example.azw3reader.core.TaskScheduler;
+import org.example.azw3reader.utils.ImageUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class ScrollReader extends ScrollPane {
+    // number of pages kept decoded above and below the ones on screen
+    private static final int WINDOW_MARGIN = 2;
+    private static final double DEFAULT_RATIO = 1.5;
+    // pages whose headers one probe task reads before it gives its worker back
+    private static final int PROBE_BATCH_SIZE = 32;
+    private final PageSource book;
+    private final int pageCount;
+    private final Pane content;
+    // height / width of every page, used to lay out the strip without decoding it
+    private final double[] ratios;
+    // top of every page at the current width, tops[pageCount] is the total height
+    private final double[] tops;
+    private final Deque<ImageView> pool = new ArrayDeque<>();
+    private final Map<Integer, ImageView> attached = new HashMap<>();
+    private final Map<Integer, TaskScheduler.Ticket> pending = new HashMap<>();
+    // cancelled on close, cancelAll only drops the batches that have not started yet
+    private final List<TaskScheduler.Ticket> probes = new ArrayList<>();
+    private final TaskScheduler scheduler;
+    private final Image placeholder;
+    private double pageWidth;
+    private boolean closed;
+
+    public ScrollReader(HBox parent, PageSource book, TaskScheduler scheduler) {
+        this.book = book;
+        this.scheduler = scheduler;
+        this.pageCount = Math.max(book.getPageCount(), 0);
+        this.ratios = new double[pageCount];
+        this.tops = new double[pageCount + 1];
+
+        Dimension2D first = book.getPageSize(0);
+        double ratio = DEFAULT_RATIO;
+        if (first != null && first.getWidth() > 0) {
+            ratio = first.getHeight() / first.getWidth();
+        }
+        Arrays.fill(this.ratios, ratio);
+        this.placeholder = ImageUtils.generatePlaceholder(1, ratio);
+
+        Stage s = (Stage)parent.getScene().getWindow();
+        String currentTitle = s.getTitle();
+        String appTitle = currentTitle.split("-")[0].trim();
+        s.setTitle(appTitle + " - " + this.book.getTitle());
+
+        this.content = new Pane();
+        this.setContent(this.content);
+        this.setFitToWidth(true);
+        this.setHbarPolicy(ScrollBarPolicy.NEVER);
+        this.setVbarPolicy(ScrollBarPolicy.ALWAYS);
+        this.setMinHeight(0);
+
+        this.viewportBoundsProperty().addListener((_, _, bounds) -> {
+            if (bounds.getWidth() != this.pageWidth) {
+                relayout(bounds.getWidth());
+            } else {
+                updateWindow();
+            }
+        });
+        this.vvalueProperty().addListener((_, _, _) -> updateWindow());
+
+        probePageSizes();
+    }
+
+    public void goTo(int page) {
+        if (page < 0 || page >= this.pageCount) {
+            return;
+        }
+        setScrollOffset(this.tops[page]);
+    }
+
+    public void close() {
+        this.closed = true;
+        this.scheduler.cancelAll(this);
+        this.probes.forEach(TaskScheduler.Ticket::cancel);
+        this.probes.clear();
+        for (ImageView view : this.attached.values()) {
+            view.setImage(null);
+        }
+        this.attached.clear();
+        this.pending.clear();
+    }
+
+    private void probePageSizes() {
+        for (int start = 0; start < this.pageCount; start += PROBE_BATCH_SIZE) {
+            int first = start;
+            int end = Math.min(start + PROBE_BATCH_SIZE, this.pageCount);
+            this.probes.add(this.scheduler.submit(this, TaskScheduler.Priority.PREFETCH, TaskScheduler.Resource.IO, () -> {
+                TaskScheduler.Ticket self = TaskScheduler.current();
+                double[] probed = new double[end - first];
+                for (int i = first; i < end; i++) {
+                    if (self.isCancelled()) {
+                        return;
+                    }
+                    Dimension2D size = this.book.getPageSize(i);
+                    probed[i - first] = size != null && size.getWidth() > 0 ? size.getHeight() / size.getWidth() : 0;
+                }
+                Platform.runLater(() -> {
+                    this.probes.remove(self);
+                    if (this.closed) {
+                        return;
+                    }
+                    for (int i = 0; i < probed.length; i++) {
+                        if (probed[i] > 0) {
+                            this.ratios[first + i] = probed[i];
+                        }
+                    }
+                    relayout(this.pageWidth);
+                });
+            }));
+        }
+    }
+
+    // recompute the page tops for the given width, keeping the page at the top of the viewport in place
+    private void relayout(double width) {
+        int anchorPage = 0;
+        double anchorFraction = 0;
+        if (this.pageWidth > 0 && this.pageCount > 0) {
+            double offset = scrollOffset();
+            anchorPage = pageAt(offset);
+            double pageHeight = this.tops[anchorPage + 1] - this.tops[anchorPage];
+            anchorFraction = pageHeight > 0 ? (offset - this.tops[anchorPage]) / pageHeight : 0;
+        }
+
+        this.pageWidth = width;
+        for (int i = 0; i < this.pageCount; i++) {
+            this.tops[i + 1] = this.tops[i] + width * this.ratios[i];
+        }
+        double totalHeight = this.tops[this.pageCount];
+        this.content.setMinHeight(totalHeight);
+        this.content.setPrefHeight(totalHeight);
+        this.content.setMaxHeight(totalHeight);
+
+        for (Map.Entry<Integer, ImageView> entry : this.attached.entrySet()) {
+            position(entry.getValue(), entry.getKey());
+        }
+
+        if (this.pageCount > 0) {
+            double anchorHeight = this.tops[anchorPage + 1] - this.tops[anchorPage];
+            setScrollOffset(this.tops[anchorPage] + anchorFraction * anchorHeight);
+        }
+        updateWindow();
+    }
+
+    // attach the pages in and around the viewport, release everything else
+    private void updateWindow() {
+        if (this.pageCount == 0 || this.pageWidth <= 0) {
+            return;
+        }
+        double top = scrollOffset();
+        double bottom = top + getViewportBounds().getHeight();
+        int firstVisible = pageAt(top);
+        int lastVisible = pageAt(bottom);
+        int start = Math.max(0, firstVisible - WINDOW_MARGIN);
+        int end = Math.min(this.pageCount, lastVisible + WINDOW_MARGIN + 1);
+
+        Iterator<Map.Entry<Integer, ImageView>> it = this.attached.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, ImageView> entry = it.next();
+            int index = entry.getKey();
+            if (index < start || index >= end) {
+                it.remove();
+                release(index, entry.getValue());
+            }
+        }
+
+        for (int i = start; i < end; i++) {
+            TaskScheduler.Priority priority = i >= firstVisible && i <= lastVisible
+                    ? TaskScheduler.Priority.VISIBLE_PAGE
+                    : TaskScheduler.Priority.PREFETCH;
+            if (!this.attached.containsKey(i)) {
+                attach(i, priority);
+            } else {
+                // a prefetched page that scrolled into view jumps the queue
+                TaskScheduler.Ticket ticket = this.pending.get(i);
+                if (ticket != null && ticket.getPriority() != priority) {
+                    ticket.setPriority(priority);
+                }
+            }
+        }
+    }
+
+    private void attach(int index, TaskScheduler.Priority priority) {
+        ImageView view = this.pool.poll();
+        if (view == null) {
+            view = new ImageView();
+            view.setPreserveRatio(true);
+            this.content.getChildren().add(view);
+        }
+        view.setImage(this.placeholder);
+        view.setVisible(true);
+        position(view, index);
+        this.attached.put(index, view);
+        decode(index, priority);
+    }
+
+    private void release(int index, ImageView view) {
+        TaskScheduler.Ticket ticket = this.pending.remove(index);
+        if (ticket != null) {
+            ticket.cancel();
+        }
+        view.setImage(null);
+        view.setVisible(false);
+        this.pool.push(view);
+    }
+
+    private void decode(int index, TaskScheduler.Priority priority) {
+        if (this.closed) {
+            return;
+        }
+        TaskScheduler.Ticket ticket = this.scheduler.submit(this, priority, () -> this.book.getPageBytes(index), bytes -> {
+            Image image = bytes == null ? null : new Image(new ByteArrayInputStream(bytes));
+            TaskScheduler.Ticket self = TaskScheduler.current();
+            Platform.runLater(() -> {
+                // scrolling away and back may have submitted a newer ticket for the page, that one stays cancellable
+                this.pending.remove(index, self);
+                ImageView view = this.attached.get(index);
+                if (view == null || image == null || image.isError()) {
+                    return;
+                }
+                view.setImage(image);
+                double ratio = image.getHeight() / image.getWidth();
+                if (Math.abs(ratio - this.ratios[index]) > 0.01) {
+                    this.ratios[index] = ratio;
+                    relayout(this.pageWidth);
+                }
+            });
+        });
+        this.pending.put(index, ticket);
+    }
+
+    private void position(ImageView view, int index) {
+        double height = this.tops[index + 1] - this.tops[index];
+        view.setLayoutX(0);
+        view.setLayoutY(this.tops[index]);
+        view.setFitWidth(this.pageWidth);
+        view.setFitHeight(height);
+    }
+
+    // index of the page covering the given vertical offset
+    private int pageAt(double y) {
+        int low = 0;
+        int high = this.pageCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.tops[mid] <= y) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private double scrollableHeight() {
+        return Math.max(0, this.tops[this.pageCount] - getViewportBounds().getHeight());
+    }
+
+    private double scrollOffset() {
+        double range = getVmax() - getVmin();
+        if (range <= 0) {
+            return 0;
+        }
+        return (getVvalue() - getVmin()) / range * scrollableHeight();
+    }
+
+    private void setScrollOffset(double offset) {
+        double scrollable = scrollableHeight();
+        double fraction = scrollable > 0 ? ImageUtils.clamp(offset / scrollable, 0, 1) : 0;
+        setVvalue(getVmin() + fraction * (getVmax() - getVmin()));
+    }
+}
@@ -0,0 +1,462 @@
+package org.example.azw3reader.gui;
+
+import javafx.application.Platform;
+import javafx.geometry.Point2D;
+import javafx.geometry.VPos;
+import javafx.scene.text.Font;
+import javafx.scene.text.HitInfo;
+import javafx.scene.text.Text;
+import org.example.azw3reader.core.BookText;
+import org.example.azw3reader.core.TaskScheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Splits reflowable text into pages without laying out the whole book first.
+//
+// Line breaking is the expensive part, it is done per paragraph on the CPU
+// workers, starting at the paragraph being read and moving outwards in chunks.
+// The first chunk is visible page work, the rest is scheduled as prefetch.
+// Pages are then cut from the known lines with plain arithmetic on the FX
+// thread, forwards and backwards from the anchor, so the first screen can be
+// shown as soon as its own paragraphs are measured. A new height only re-cuts
+// the pages, a new width or font throws away the line breaks and measures again
+// from the current position.
+//
+// The text itself is decoded on the I/O workers a batch of records at a time
+// from the start of the book. Paragraphs that are not decoded yet are simply
+// not there, pages running into them wait until the next batch arrives.
+public class TextPaginator {
+    private static final int FIRST_CHUNK_PARAGRAPHS = 8;
+    private static final int CHUNK_PARAGRAPHS = 64;
+    private static final int FIRST_TEXT_RECORDS = 4;
+    private static final int TEXT_RECORDS = 32;
+    private static final long UNKNOWN = -1;
+
+    private final BookText text;
+    private final TaskScheduler scheduler;
+    // the decoded part of the text, moved on the FX thread as batches arrive
+    private volatile int paragraphCount;
+    private boolean textComplete;
+    private volatile boolean closed;
+    // first paragraph the line breaks are waiting for, -1 when measuring is not held up by the text
+    private int measureFrom = -1;
+    // line starts of every measured paragraph, relative to the paragraph, null until measured
+    private int[][] lines;
+    private Font font;
+    private double width;
+    private double lineHeight;
+    private int linesPerPage;
+    private volatile int generation;
+    private volatile TaskScheduler.Ticket job;
+
+    private int anchorParagraph;
+    private int anchorOffset;
+    private boolean anchorResolved;
+    // page starts packed as paragraph and line, before the anchor in reverse order
+    private final List<Long> pagesBefore = new ArrayList<>();
+    private final List<Long> pagesAfter = new ArrayList<>();
+    private long forwardEnd;
+    private long backwardStart;
+    private boolean forwardDone;
+    private boolean backwardDone;
+    private Runnable onPagesChanged;
+
+    public TextPaginator(BookText text, TaskScheduler scheduler) {
+        this.text = text;
+        this.scheduler = scheduler;
+        this.textComplete = text.isComplete();
+        this.paragraphCount = text.getParagraphCount();
+        this.lines = new int[this.paragraphCount][];
+        if (!this.textComplete) {
+            decodeText(TaskScheduler.Priority.VISIBLE_PAGE, FIRST_TEXT_RECORDS);
+        }
+    }
+
+    public void setOnPagesChanged(Runnable onPagesChanged) {
+        this.onPagesChanged = onPagesChanged;
+    }
+
+    // paginate for the given page box, keeping the page that contains position
+    public void layout(Font font, double width, double height, int position) {
+        boolean linesValid = font.equals(this.font) && width == this.width;
+        if (!linesValid) {
+            if (this.job != null) {
+                this.job.cancel();
+            }
+            this.generation++;
+            this.measureFrom = -1;
+            this.font = font;
+            this.width = width;
+            this.lines = new int[this.paragraphCount][];
+            Text measure = measureText(font, width);
+            measure.setText("X");
+            this.lineHeight = measure.getLayoutBounds().getHeight();
+        }
+        this.linesPerPage = Math.max(2, (int)Math.floor(height / this.lineHeight));
+
+        this.anchorParagraph = this.paragraphCount == 0
+                ? 0
+                : Math.min(this.text.paragraphAt(position), this.paragraphCount - 1);
+        this.anchorOffset = this.paragraphCount == 0 ? 0 : position - this.text.getParagraphStart(this.anchorParagraph);
+        this.anchorResolved = false;
+        this.pagesBefore.clear();
+        this.pagesAfter.clear();
+        this.forwardDone = false;
+        this.backwardDone = false;
+
+        if (!linesValid) {
+            int anchor = this.anchorParagraph;
+            measureChunk(this.generation, font, width, anchor, anchor - 1, FIRST_CHUNK_PARAGRAPHS);
+        }
+        extendPages();
+    }
+
+    public void close() {
+        this.closed = true;
+        this.generation++;
+        this.scheduler.cancelAll(this);
+    }
+
+    public boolean isComplete() {
+        return this.forwardDone && this.backwardDone;
+    }
+
+    public int getPageCount() {
+        return this.pagesBefore.size() + this.pagesAfter.size();
+    }
+
+    // page containing the position, -1 while that part of the book is not paginated yet
+    public int pageAt(int position) {
+        int low = 0;
+        int high = getPageCount() - 1;
+        if (high < 0 || position < getPageStart(0)) {
+            return -1;
+        }
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (getPageStart(mid) <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (low == getPageCount() - 1 && !this.forwardDone && position >= toPosition(this.forwardEnd)) {
+            return -1;
+        }
+        return low;
+    }
+
+    public int getPageStart(int page) {
+        return toPosition(pageStart(page));
+    }
+
+    public String getPageText(int page) {
+        long start = pageStart(page);
+        long end = page + 1 < getPageCount() ? pageStart(page + 1) : this.forwardEnd;
+        int startParagraph = paragraph(start);
+        int endParagraph = paragraph(end);
+        StringBuilder pageText = new StringBuilder();
+        for (int p = startParagraph; p <= endParagraph && p < this.paragraphCount; p++) {
+            String paragraph = this.text.getParagraph(p);
+            int from = p == startParagraph ? this.lines[p][line(start)] : 0;
+            int to = paragraph.length();
+            if (p == endParagraph) {
+                if (line(end) == 0) {
+                    break;
+                }
+                to = line(end) < this.lines[p].length ? this.lines[p][line(end)] : paragraph.length();
+            }
+            if (p != startParagraph) {
+                pageText.append("\n\n");
+            }
+            pageText.append(paragraph, from, to);
+        }
+        return pageText.toString();
+    }
+
+    private long pageStart(int page) {
+        int before = this.pagesBefore.size();
+        return page < before ? this.pagesBefore.get(before - 1 - page) : this.pagesAfter.get(page - before);
+    }
+
+    private void extendPages() {
+        if (!this.anchorResolved) {
+            if (this.paragraphCount == 0) {
+                if (!this.textComplete) {
+                    return;
+                }
+                this.forwardDone = true;
+                this.backwardDone = true;
+                this.anchorResolved = true;
+                notifyPagesChanged();
+                return;
+            }
+            int[] anchorLines = this.lines[this.anchorParagraph];
+            if (anchorLines == null) {
+                return;
+            }
+            int line = 0;
+            while (line + 1 < anchorLines.length && anchorLines[line + 1] <= this.anchorOffset) {
+                line++;
+            }
+            this.forwardEnd = pack(this.anchorParagraph, line);
+            this.backwardStart = this.forwardEnd;
+            this.anchorResolved = true;
+        }
+
+        boolean changed = false;
+        while (!this.forwardDone) {
+            if (paragraph(this.forwardEnd) >= this.paragraphCount) {
+                if (!this.textComplete) {
+                    break;
+                }
+                this.forwardDone = true;
+                changed = true;
+                break;
+            }
+            long next = nextPageStart(this.forwardEnd);
+            if (next == UNKNOWN) {
+                break;
+            }
+            this.pagesAfter.add(this.forwardEnd);
+            this.forwardEnd = next;
+            changed = true;
+        }
+        while (!this.backwardDone) {
+            if (this.backwardStart == 0) {
+                this.backwardDone = true;
+                changed = true;
+                break;
+            }
+            long previous = previousPageStart(this.backwardStart);
+            if (previous == UNKNOWN) {
+                break;
+            }
+            this.pagesBefore.add(previous);
+            this.backwardStart = previous;
+            changed = true;
+        }
+        if (changed) {
+            notifyPagesChanged();
+        }
+    }
+
+    private void notifyPagesChanged() {
+        if (this.onPagesChanged != null) {
+            this.onPagesChanged.run();
+        }
+    }
+
+    // a blank line separates paragraphs, but never at the top or bottom of a page
+    private long nextPageStart(long start) {
+        int p = paragraph(start);
+        int l = line(start);
+        int taken = 0;
+        while (taken < this.linesPerPage && p < this.paragraphCount) {
+            int[] paragraphLines = this.lines[p];
+            if (paragraphLines == null) {
+                return UNKNOWN;
+            }
+            if (l < paragraphLines.length) {
+                int take = Math.min(paragraphLines.length - l, this.linesPerPage - taken);
+                l += take;
+                taken += take;
+            } else {
+                p++;
+                l = 0;
+                taken++;
+            }
+        }
+        // a short page at the end of the decoded text may go on in the next batch
+        if (taken < this.linesPerPage && !this.textComplete) {
+            return UNKNOWN;
+        }
+        if (p < this.paragraphCount) {
+            if (this.lines[p] == null) {
+                return UNKNOWN;
+            }
+            if (l >= this.lines[p].length) {
+                p++;
+                l = 0;
+            }
+        }
+        return pack(p, l);
+    }
+
+    private long previousPageStart(long end) {
+        int p = paragraph(end);
+        int l = line(end);
+        int taken = 0;
+        while (taken < this.linesPerPage) {
+            if (l > 0) {
+                int take = Math.min(l, this.linesPerPage - taken);
+                l -= take;
+                taken += take;
+            } else {
+                if (p == 0) {
+                    break;
+                }
+                p--;
+                if (this.lines[p] == null) {
+                    return UNKNOWN;
+                }
+                l = this.lines[p].length;
+                if (taken > 0) {
+                    taken++;
+                }
+            }
+        }
+        if (l >= this.lines[p].length) {
+            p++;
+            l = 0;
+        }
+        return pack(p, l);
+    }
+
+    // decodes a batch of text records, then queues the next one at prefetch priority
+    private void decodeText(TaskScheduler.Priority priority, int records) {
+        this.scheduler.submit(this, priority, TaskScheduler.Resource.IO, () -> {
+            if (this.closed) {
+                return;
+            }
+            boolean more = false;
+            try {
+                more = this.text.decode(records);
+            } catch (IOException ex) {
+                // already logged, the text ends where it could be read
+            }
+            Platform.runLater(this::textDecoded);
+            if (more && !this.closed) {
+                decodeText(TaskScheduler.Priority.PREFETCH, TEXT_RECORDS);
+            }
+        });
+    }
+
+    private void textDecoded() {
+        if (this.closed) {
+            return;
+        }
+        // read in this order a complete text can not grow after its count was taken
+        this.textComplete = this.text.isComplete();
+        int count = this.text.getParagraphCount();
+        this.lines = Arrays.copyOf(this.lines, count);
+        this.paragraphCount = count;
+        if (this.font == null) {
+            return;
+        }
+        if (this.measureFrom >= 0) {
+            int from = this.measureFrom;
+            this.measureFrom = -1;
+            int chunk = this.anchorResolved ? CHUNK_PARAGRAPHS : FIRST_CHUNK_PARAGRAPHS;
+            measureChunk(this.generation, this.font, this.width, from, -1, chunk);
+        }
+        extendPages();
+    }
+
+    // the line breaks caught up with the decoded text
+    private void waitForText(int jobGeneration, int forward) {
+        if (jobGeneration != this.generation) {
+            return;
+        }
+        if (forward < this.paragraphCount) {
+            measureChunk(jobGeneration, this.font, this.width, forward, -1, CHUNK_PARAGRAPHS);
+        } else if (!this.textComplete) {
+            this.measureFrom = forward;
+        }
+    }
+
+    // measures a chunk after forward and one before backward, then queues the next pair
+    private void measureChunk(int jobGeneration, Font font, double width, int forward, int backward, int chunk) {
+        if (jobGeneration != this.generation) {
+            return;
+        }
+        if (forward >= this.paragraphCount && backward < 0) {
+            Platform.runLater(() -> waitForText(jobGeneration, forward));
+            return;
+        }
+        TaskScheduler.Priority priority = chunk == FIRST_CHUNK_PARAGRAPHS
+                ? TaskScheduler.Priority.VISIBLE_PAGE
+                : TaskScheduler.Priority.PREFETCH;
+        this.job = this.scheduler.submit(this, priority, TaskScheduler.Resource.CPU, () -> {
+            // a Text that is not part of a scene can be measured off the FX thread
+            Text measure = measureText(font, width);
+            measure.setText("X");
+            double height = measure.getLayoutBounds().getHeight();
+            int nextForward = forward;
+            int nextBackward = backward;
+            if (forward < this.paragraphCount) {
+                nextForward = Math.min(this.paragraphCount, forward + chunk);
+                publish(jobGeneration, forward, measureRange(measure, height, forward, nextForward));
+            }
+            if (backward >= 0 && jobGeneration == this.generation) {
+                int start = Math.max(0, backward - chunk + 1);
+                publish(jobGeneration, start, measureRange(measure, height, start, backward + 1));
+                nextBackward = start - 1;
+            }
+            measureChunk(jobGeneration, font, width, nextForward, nextBackward, CHUNK_PARAGRAPHS);
+        });
+    }
+
+    private int[][] measureRange(Text measure, double height, int start, int end) {
+        int[][] measured = new int[end - start][];
+        for (int p = start; p < end; p++) {
+            measured[p - start] = lineStarts(measure, this.text.getParagraph(p), height);
+        }
+        return measured;
+    }
+
+    private void publish(int jobGeneration, int start, int[][] measured) {
+        Platform.runLater(() -> {
+            if (jobGeneration != this.generation) {
+                return;
+            }
+            for (int i = 0; i < measured.length; i++) {
+                this.lines[start + i] = measured[i];
+            }
+            extendPages();
+        });
+    }
+
+    private static int[] lineStarts(Text measure, String paragraph, double lineHeight) {
+        measure.setText(paragraph);
+        int lineCount = Math.max(1, (int)Math.round(measure.getLayoutBounds().getHeight() / lineHeight));
+        int[] starts = new int[lineCount];
+        for (int l = 1; l < lineCount; l++) {
+            HitInfo hit = measure.hitTest(new Point2D(0, l * lineHeight + lineHeight / 2));
+            starts[l] = Math.max(starts[l - 1], hit.getInsertionIndex());
+        }
+        return starts;
+    }
+
+    private static Text measureText(Font font, double width) {
+        Text measure = new Text();
+        measure.setFont(font);
+        measure.setWrappingWidth(width);
+        measure.setTextOrigin(VPos.TOP);
+        return measure;
+    }
+
+    private int toPosition(long packed) {
+        int p = paragraph(packed);
+        if (p >= this.paragraphCount) {
+            // the end of the decoded text, which may have grown past this count already
+            return this.text.getParagraphStart(this.paragraphCount);
+        }
+        return this.text.getParagraphStart(p) + this.lines[p][line(packed)];
+    }
+
+    private static long pack(int paragraph, int line) {
+        return (long)paragraph << 32 | line;
+    }
+
+    private static int paragraph(long packed) {
+        return (int)(packed >>> 32);
+    }
+
+    private static int line(long packed) {
+        return (int)packed;
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.azw3reader.gui;
+
+import javafx.animation.PauseTransition;
+import javafx.geometry.Pos;
+import javafx.geometry.VPos;
+import javafx.scene.control.Label;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+import org.example.azw3reader.core.BookText;
+import org.example.azw3reader.core.PageSource;
+import org.example.azw3reader.core.TaskScheduler;
+
+// Pages through the text of a reflowable book. The current page is tracked
+// as a character position, so it survives window resizes and font changes.
+public class TextReader extends BorderPane {
+    private static final double PADDING = 40;
+    private static final double DEFAULT_FONT_SIZE = 18;
+    private static final double MIN_FONT_SIZE = 10;
+    private static final double MAX_FONT_SIZE = 40;
+    private final PageSource book;
+    private final BookText text;
+    private final TextPaginator paginator;
+    private final Pane page;
+    private final Text pageText = new Text();
+    private final Label status = new Label();
+    private final PauseTransition resizeDelay = new PauseTransition(Duration.millis(150));
+    private Font font = Font.font(DEFAULT_FONT_SIZE);
+    private int position;
+
+    public TextReader(HBox parent, PageSource book, BookText text, TaskScheduler scheduler) {
+        this.book = book;
+        this.text = text;
+        this.paginator = new TextPaginator(text, scheduler);
+        Stage s = (Stage)parent.getScene().getWindow();
+        String currentTitle = s.getTitle();
+        String appTitle = currentTitle.split("-")[0].trim();
+        s.setTitle(appTitle + " - " + this.book.getTitle());
+
+        this.pageText.setTextOrigin(VPos.TOP);
+        this.pageText.setFont(this.font);
+        this.pageText.relocate(PADDING, PADDING);
+        this.page = new Pane(this.pageText);
+        this.page.setMinSize(0, 0);
+        this.setCenter(this.page);
+        BorderPane.setAlignment(this.status, Pos.CENTER);
+        this.setBottom(this.status);
+
+        this.page.setOnMouseClicked(e -> {
+            boolean leftHalf = e.getX() < this.page.getWidth() / 2;
+            if (leftHalf == this.book.leftToRight()) {
+                previous();
+            } else {
+                next();
+            }
+        });
+        parent.getScene().setOnKeyPressed(keyEvent -> {
+            KeyCode code = keyEvent.getCode();
+            if (code == KeyCode.PAGE_DOWN || code == KeyCode.SPACE
+                    || code == (this.book.leftToRight() ? KeyCode.RIGHT : KeyCode.LEFT)) {
+                next();
+            } else if (code == KeyCode.PAGE_UP
+                    || code == (this.book.leftToRight() ? KeyCode.LEFT : KeyCode.RIGHT)) {
+                previous();
+            } else if (keyEvent.isShortcutDown() && (code == KeyCode.PLUS || code == KeyCode.EQUALS)) {
+                setFontSize(this.font.getSize() + 2);
+            } else if (keyEvent.isShortcutDown() && code == KeyCode.MINUS) {
+                setFontSize(this.font.getSize() - 2);
+            }
+        });
+
+        this.paginator.setOnPagesChanged(this::showCurrentPage);
+        // resizing fires a burst of events, paginate once it settles
+        this.resizeDelay.setOnFinished(e -> relayout());
+        this.page.widthProperty().addListener((_, _, _) -> this.resizeDelay.playFromStart());
+        this.page.heightProperty().addListener((_, _, _) -> this.resizeDelay.playFromStart());
+    }
+
+    public void next() {
+        int current = this.paginator.pageAt(this.position);
+        if (current >= 0 && current + 1 < this.paginator.getPageCount()) {
+            this.position = this.paginator.getPageStart(current + 1);
+            showCurrentPage();
+        }
+    }
+
+    public void previous() {
+        int current = this.paginator.pageAt(this.position);
+        if (current > 0) {
+            this.position = this.paginator.getPageStart(current - 1);
+            showCurrentPage();
+        }
+    }
+
+    public void close() {
+        this.resizeDelay.stop();
+        this.paginator.close();
+    }
+
+    private void setFontSize(double size) {
+        this.font = Font.font(this.font.getFamily(), Math.clamp(size, MIN_FONT_SIZE, MAX_FONT_SIZE));
+        this.pageText.setFont(this.font);
+        relayout();
+    }
+
+    private void relayout() {
+        double width = this.page.getWidth() - 2 * PADDING;
+        double height = this.page.getHeight() - 2 * PADDING;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        this.pageText.setWrappingWidth(width);
+        this.paginator.layout(this.font, width, height, this.position);
+        showCurrentPage();
+    }
+
+    private void showCurrentPage() {
+        int current = this.paginator.pageAt(this.position);
+        if (current < 0) {
+            this.pageText.setText("");
+            this.status.setText("Laying out…");
+            return;
+        }
+        this.pageText.setText(this.paginator.getPageText(current));
+        if (this.paginator.isComplete()) {
+            this.status.setText((current + 1) + " / " + this.paginator.getPageCount());
+        } else {
+            // page numbers before the current page are still moving
+            this.status.setText(Math.round(100 * this.text.fractionAt(this.position)) + "%");
+        }
+    }
+}
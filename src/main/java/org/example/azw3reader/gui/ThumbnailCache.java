@@ -0,0 +1,149 @@
+package org.example.azw3reader.gui;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import org.example.azw3reader.core.PageSource;
+import org.example.azw3reader.core.TaskScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Consumer;
+
+// Low resolution page images of a single book or comic. Everything except the decoding
+// itself runs on the FX thread, so the maps need no locking.
+public class ThumbnailCache {
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailCache.class);
+    public static final double THUMBNAIL_WIDTH = 96;
+    public static final double THUMBNAIL_HEIGHT = 144;
+    private static final int CAPACITY = 1024;
+
+    private static final class Request {
+        private final int index;
+        private final List<Consumer<Image>> callbacks = new ArrayList<>(1);
+        private volatile boolean cancelled;
+
+        private Request(int index) {
+            this.index = index;
+        }
+    }
+
+    private record Loaded(Request request, byte[] bytes){}
+
+    private final PageSource source;
+    private final Map<Integer, Image> thumbnails = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Image> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+    private final Map<Integer, Request> requests = new HashMap<>();
+    // newest requests are served first, those belong to the cells that just became visible
+    private final LinkedBlockingDeque<Request> queue = new LinkedBlockingDeque<>();
+    private final TaskScheduler scheduler;
+    private boolean closed;
+
+    public ThumbnailCache(PageSource source, TaskScheduler scheduler) {
+        this.source = source;
+        this.scheduler = scheduler;
+    }
+
+    public PageSource getSource() {
+        return this.source;
+    }
+
+    public Image get(int index) {
+        return this.thumbnails.get(index);
+    }
+
+    public void request(int index, Consumer<Image> callback) {
+        request(index, TaskScheduler.Priority.THUMBNAIL, callback);
+    }
+
+    // a reader asks at a higher priority when the thumbnail stands in for a page on screen
+    public void request(int index, TaskScheduler.Priority priority, Consumer<Image> callback) {
+        Request request = this.requests.get(index);
+        if (request == null) {
+            request = new Request(index);
+            this.requests.put(index, request);
+            this.queue.addFirst(request);
+            submit(priority);
+        } else if (priority.ordinal() < TaskScheduler.Priority.THUMBNAIL.ordinal() && this.queue.remove(request)) {
+            // still waiting, the task submitted now serves it first
+            this.queue.addFirst(request);
+            submit(priority);
+        }
+        request.callbacks.add(callback);
+    }
+
+    public void cancel(int index, Consumer<Image> callback) {
+        Request request = this.requests.get(index);
+        if (request == null) {
+            return;
+        }
+        request.callbacks.remove(callback);
+        if (request.callbacks.isEmpty()) {
+            request.cancelled = true;
+            this.requests.remove(index);
+            this.queue.remove(request);
+        }
+    }
+
+    public void close() {
+        this.closed = true;
+        this.scheduler.cancelAll(this);
+        this.queue.clear();
+        this.requests.clear();
+        this.thumbnails.clear();
+    }
+
+    private void submit(TaskScheduler.Priority priority) {
+        if (!this.closed) {
+            this.scheduler.submit(this, priority, this::readNewest, this::decode);
+        }
+    }
+
+    private Loaded readNewest() {
+        Request request = this.queue.pollFirst();
+        if (request == null || request.cancelled) {
+            return null;
+        }
+        try {
+            return new Loaded(request, this.source.getPageBytes(request.index));
+        } catch (RuntimeException ex) {
+            log.error("Could not read thumbnail {}", request.index, ex);
+            return new Loaded(request, null);
+        }
+    }
+
+    private void decode(Loaded loaded) {
+        if (loaded == null) {
+            return;
+        }
+        Request request = loaded.request();
+        Image image = null;
+        if (loaded.bytes() != null) {
+            image = new Image(new ByteArrayInputStream(loaded.bytes()), THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, true, true);
+        }
+        Image thumbnail = image;
+        Platform.runLater(() -> {
+            if (thumbnail == null || thumbnail.isError()) {
+                this.requests.remove(request.index, request);
+                return;
+            }
+            this.thumbnails.put(request.index, thumbnail);
+            if (!this.requests.remove(request.index, request)) {
+                return;
+            }
+            for (Consumer<Image> callback : request.callbacks) {
+                callback.accept(thumbnail);
+            }
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.azw3reader.gui;
+
+import javafx.collections.FXCollections;
+import javafx.scene.Node;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Grid of page thumbnails, virtualized as a ListView of rows. The number of
+// columns follows the width, every item is the index of a row.
+public class ThumbnailGrid extends ListView<Integer> {
+    private static final double TILE_WIDTH = ThumbnailCache.THUMBNAIL_WIDTH + 8;
+    private final ThumbnailCache cache;
+    private final IntConsumer onPageSelected;
+    private final int pageCount;
+    private int columns = 0;
+
+    public ThumbnailGrid(ThumbnailCache cache, IntConsumer onPageSelected) {
+        this.cache = cache;
+        this.onPageSelected = onPageSelected;
+        this.pageCount = Math.max(cache.getSource().getPageCount(), 0);
+        this.setFixedCellSize(ThumbnailCache.THUMBNAIL_HEIGHT + 36);
+        this.setCellFactory(_ -> new RowCell());
+        this.widthProperty().addListener((_, _, width) -> updateColumns(width.doubleValue()));
+        updateColumns(this.getWidth());
+    }
+
+    private void updateColumns(double width) {
+        // leave room for the scroll bar
+        int newColumns = Math.max(1, (int)((width - 24) / TILE_WIDTH));
+        if (newColumns == this.columns) {
+            return;
+        }
+        this.columns = newColumns;
+        int rows = (this.pageCount + newColumns - 1) / newColumns;
+        this.setItems(FXCollections.observableArrayList(
+                IntStream.range(0, rows).boxed().collect(Collectors.toList())
+        ));
+    }
+
+    private class RowCell extends ListCell<Integer> {
+        private final HBox row = new HBox();
+
+        @Override
+        protected void updateItem(Integer rowIndex, boolean empty) {
+            super.updateItem(rowIndex, empty);
+            List<Node> tiles = this.row.getChildren();
+            if (empty || rowIndex == null) {
+                for (Node tile : tiles) {
+                    ((ThumbnailTile)tile).clear();
+                }
+                setGraphic(null);
+                return;
+            }
+            while (tiles.size() > columns) {
+                ((ThumbnailTile)tiles.removeLast()).clear();
+            }
+            while (tiles.size() < columns) {
+                tiles.add(new ThumbnailTile(cache, onPageSelected));
+            }
+            for (int c = 0; c < columns; c++) {
+                ThumbnailTile tile = (ThumbnailTile)tiles.get(c);
+                int index = rowIndex * columns + c;
+                if (index < pageCount) {
+                    tile.show(index);
+                    tile.setVisible(true);
+                } else {
+                    tile.clear();
+                    tile.setVisible(false);
+                }
+            }
+            setGraphic(this.row);
+        }
+    }
+}
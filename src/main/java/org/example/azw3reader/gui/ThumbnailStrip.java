@@ -0,0 +1,40 @@
+package org.example.azw3reader.gui;
+
+import javafx.collections.FXCollections;
+import javafx.geometry.Orientation;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Horizontal row of page thumbnails. ListView only creates cells for the visible pages.
+public class ThumbnailStrip extends ListView<Integer> {
+
+    public ThumbnailStrip(ThumbnailCache cache, IntConsumer onPageSelected) {
+        int pageCount = Math.max(cache.getSource().getPageCount(), 0);
+        this.setOrientation(Orientation.HORIZONTAL);
+        this.setFixedCellSize(ThumbnailCache.THUMBNAIL_WIDTH + 16);
+        this.setPrefHeight(ThumbnailCache.THUMBNAIL_HEIGHT + 48);
+        this.setMinHeight(ThumbnailCache.THUMBNAIL_HEIGHT + 48);
+        this.setItems(FXCollections.observableArrayList(
+                IntStream.range(0, pageCount).boxed().collect(Collectors.toList())
+        ));
+        this.setCellFactory(_ -> new ListCell<>() {
+            private final ThumbnailTile tile = new ThumbnailTile(cache, onPageSelected);
+
+            @Override
+            protected void updateItem(Integer index, boolean empty) {
+                super.updateItem(index, empty);
+                if (empty || index == null) {
+                    tile.clear();
+                    setGraphic(null);
+                } else {
+                    tile.show(index);
+                    setGraphic(tile);
+                }
+            }
+        });
+    }
+}
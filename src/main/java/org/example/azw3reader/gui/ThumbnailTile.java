@@ -0,0 +1,65 @@
+package org.example.azw3reader.gui;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.VBox;
+
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+class ThumbnailTile extends VBox {
+    private final ThumbnailCache cache;
+    private final ImageView view;
+    private final Label label;
+    // kept as a field so the same instance can be handed back to cancel
+    private final Consumer<Image> onLoaded;
+    private int index = -1;
+
+    ThumbnailTile(ThumbnailCache cache, IntConsumer onPageSelected) {
+        this.cache = cache;
+        this.view = new ImageView();
+        this.view.setFitWidth(ThumbnailCache.THUMBNAIL_WIDTH);
+        this.view.setFitHeight(ThumbnailCache.THUMBNAIL_HEIGHT);
+        this.view.setPreserveRatio(true);
+        this.label = new Label();
+        this.onLoaded = this.view::setImage;
+
+        this.setAlignment(Pos.CENTER);
+        this.setSpacing(2);
+        this.setPadding(new Insets(4));
+        this.setMinSize(ThumbnailCache.THUMBNAIL_WIDTH + 8, ThumbnailCache.THUMBNAIL_HEIGHT + 28);
+        this.getChildren().addAll(this.view, this.label);
+        this.setOnMouseClicked(e -> {
+            if (this.index >= 0) {
+                onPageSelected.accept(this.index);
+            }
+        });
+    }
+
+    void show(int index) {
+        if (this.index == index) {
+            return;
+        }
+        clear();
+        this.index = index;
+        this.label.setText(String.valueOf(index + 1));
+        Image cached = this.cache.get(index);
+        if (cached != null) {
+            this.view.setImage(cached);
+        } else {
+            this.cache.request(index, this.onLoaded);
+        }
+    }
+
+    void clear() {
+        if (this.index >= 0) {
+            this.cache.cancel(this.index, this.onLoaded);
+        }
+        this.index = -1;
+        this.view.setImage(null);
+        this.label.setText("");
+    }
+}
@@ -1,5 +1,6 @@
 package org.example.azw3reader.utils;
 
+import javafx.geometry.Dimension2D;
 import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
 import javafx.scene.image.*;
@@ -67,4 +68,58 @@ public class ImageUtils {
                 viewport.getMinX() + xProportion * viewport.getWidth(),
                 viewport.getMinY() + yProportion * viewport.getHeight());
     }
+
+    // read the pixel size from the header of a JPEG, PNG or GIF without decoding it.
+    // returns null when the header is not recognized or is cut off before the size
+    public static Dimension2D probeSize(byte[] data) {
+        if (data.length >= 24 && (data[0] & 0xFF) == 0x89 && data[1] == 'P' && data[2] == 'N' && data[3] == 'G') {
+            int width = readIntBE(data, 16);
+            int height = readIntBE(data, 20);
+            return new Dimension2D(width, height);
+        }
+        if (data.length >= 10 && data[0] == 'G' && data[1] == 'I' && data[2] == 'F') {
+            int width = (data[6] & 0xFF) | (data[7] & 0xFF) << 8;
+            int height = (data[8] & 0xFF) | (data[9] & 0xFF) << 8;
+            return new Dimension2D(width, height);
+        }
+        if (data.length >= 4 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8) {
+            int i = 2;
+            while (i + 3 < data.length) {
+                if ((data[i] & 0xFF) != 0xFF) {
+                    return null;
+                }
+                int marker = data[i + 1] & 0xFF;
+                if (marker == 0xFF) {
+                    // fill byte before the actual marker
+                    i++;
+                    continue;
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    // standalone markers have no length field
+                    i += 2;
+                    continue;
+                }
+                boolean startOfFrame = marker >= 0xC0 && marker <= 0xCF
+                        && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+                if (startOfFrame) {
+                    if (i + 8 >= data.length) {
+                        return null;
+                    }
+                    int height = (data[i + 5] & 0xFF) << 8 | (data[i + 6] & 0xFF);
+                    int width = (data[i + 7] & 0xFF) << 8 | (data[i + 8] & 0xFF);
+                    return new Dimension2D(width, height);
+                }
+                int segmentLen = (data[i + 2] & 0xFF) << 8 | (data[i + 3] & 0xFF);
+                i += 2 + segmentLen;
+            }
+        }
+        return null;
+    }
+
+    private static int readIntBE(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 24
+                | (data[offset + 1] & 0xFF) << 16
+                | (data[offset + 2] & 0xFF) << 8
+                | (data[offset + 3] & 0xFF);
+    }
 }
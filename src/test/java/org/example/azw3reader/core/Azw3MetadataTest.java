@@ -0,0 +1,116 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Azw3MetadataTest {
+    private static final int PAGE_COUNT = 3;
+    private static final int WIDTH = 60;
+    private static final int HEIGHT = 90;
+    private static final String HTML = "<html><body><p>KF8 text</p></body></html>";
+    private static final String CSS = "p { margin: 0 }";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsASingleBookFromRecordZero() throws IOException {
+        File file = this.dir.resolve("single.azw3").toFile();
+        BookGenerator.generate(file, "Single book", PAGE_COUNT, WIDTH, HEIGHT);
+
+        Azw3Metadata metadata = Azw3Metadata.of(file);
+        assertEquals(0, metadata.getHeaderRecord());
+        assertEquals(1, metadata.getMobiHeader().firstImageIndex());
+        assertEquals(0, metadata.getPalmDocHeader().recordCount());
+    }
+
+    @Test
+    void readsTheKf8HeadersOfAHybridFile() throws IOException {
+        File file = this.dir.resolve("hybrid.azw3").toFile();
+        BookGenerator.generateHybrid(file, "KF8 title", "Legacy title", HTML, CSS, PAGE_COUNT, WIDTH, HEIGHT, false);
+
+        Azw3Metadata metadata = Azw3Metadata.of(file);
+        int boundary = metadata.getHeaderRecord();
+        assertEquals("BOUNDARY", recordPrefix(file, metadata, boundary - 1, 8));
+        assertEquals(1, metadata.getPalmDocHeader().recordCount());
+        // the text record, then the images of the KF8 half
+        assertEquals(boundary + 2, metadata.getMobiHeader().firstRecordNumber());
+        assertEquals(boundary + 2, metadata.getMobiHeader().firstImageIndex());
+        assertTrue(isJpeg(file, metadata, metadata.getMobiHeader().firstImageIndex()));
+        assertEquals("FDST", recordPrefix(file, metadata, fdstIndex(metadata), 4));
+        assertEquals(-1, exthInt(metadata, 121));
+        assertEquals(PAGE_COUNT, exthInt(metadata, 201));
+    }
+
+    @Test
+    void fallsBackToTheLegacyImagesWhenTheyAreShared() throws IOException {
+        File file = this.dir.resolve("shared.azw3").toFile();
+        BookGenerator.generateHybrid(file, "KF8 title", "Legacy title", HTML, CSS, PAGE_COUNT, WIDTH, HEIGHT, true);
+
+        Azw3Metadata metadata = Azw3Metadata.of(file);
+        int boundary = metadata.getHeaderRecord();
+        assertEquals("BOUNDARY", recordPrefix(file, metadata, boundary - 1, 8));
+        // the legacy header record and its text record come first
+        assertEquals(2, metadata.getMobiHeader().firstImageIndex());
+        assertTrue(isJpeg(file, metadata, metadata.getMobiHeader().firstImageIndex()));
+        assertEquals(boundary + 2, metadata.getMobiHeader().firstRecordNumber());
+        assertEquals("FDST", recordPrefix(file, metadata, fdstIndex(metadata), 4));
+    }
+
+    @Test
+    void readsTheLegacyBookWithoutABoundaryRecord() throws IOException {
+        File file = this.dir.resolve("broken.azw3").toFile();
+        BookGenerator.generateHybrid(file, "KF8 title", "Legacy title", HTML, CSS, PAGE_COUNT, WIDTH, HEIGHT, false);
+        int boundary = Azw3Metadata.of(file).getHeaderRecord();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(Azw3Metadata.of(file).getPalmDatabaseHeader().records().get(boundary - 1).offset());
+            raf.write("NOTKF8!!".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        Azw3Metadata metadata = Azw3Metadata.of(file);
+        assertEquals(0, metadata.getHeaderRecord());
+        assertEquals(boundary, exthInt(metadata, 121));
+        try (Book book = new Book(file, metadata, false)) {
+            assertEquals("Legacy title", book.getTitle());
+        }
+    }
+
+    private static int fdstIndex(Azw3Metadata metadata) {
+        return metadata.getMobiHeader().firstContentIndex() << 16 | metadata.getMobiHeader().lastContentIndex();
+    }
+
+    private static int exthInt(Azw3Metadata metadata, int type) {
+        for (Azw3Metadata.EXTHRecord record : metadata.getExthHeader().records()) {
+            if (record.recordType() == type) {
+                byte[] data = record.recordData();
+                return (data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8 | data[3] & 0xFF;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isJpeg(File file, Azw3Metadata metadata, int index) throws IOException {
+        String prefix = recordPrefix(file, metadata, index, 2);
+        return prefix.charAt(0) == 0xFF && prefix.charAt(1) == 0xD8;
+    }
+
+    private static String recordPrefix(File file, Azw3Metadata metadata, int index, int len) throws IOException {
+        List<Azw3Metadata.PalmDatabaseRecord> records = metadata.getPalmDatabaseHeader().records();
+        byte[] buf = new byte[len];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(records.get(index).offset());
+            raf.readFully(buf);
+        }
+        return new String(buf, StandardCharsets.ISO_8859_1);
+    }
+}
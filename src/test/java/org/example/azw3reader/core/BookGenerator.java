@@ -0,0 +1,370 @@
+package org.example.azw3reader.core;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Writes a minimal image only AZW3 file: record 0 with the PalmDOC, MOBI and
+// EXTH headers, one JPEG record per page, the cover, the thumbnail and an
+// end of file record. An optional filler record of zeros in front of the
+// images pushes them past a given offset, it is left as a hole in the file so
+// multi gigabyte books cost no disk space on file systems with sparse files.
+//
+// Hybrid files put a legacy MOBI 6 book with its own title and text in front
+// of a BOUNDARY record and the KF8 book behind it, with the record indices of
+// the KF8 header counted from the KF8 header record.
+public class BookGenerator {
+    private static final int MOBI_HEADER_LEN = 264;
+    private static final int PALM_DATABASE_HEADER_LEN = 78;
+    private static final int PALM_DATABASE_RECORD_LEN = 8;
+    private static final byte[] END_OF_FILE = {(byte)0xE9, (byte)0x8E, 0x0D, 0x0A};
+
+    public static void generate(File file, String title, int pageCount, int width, int height) throws IOException {
+        generate(file, title, pageCount, width, height, 0);
+    }
+
+    public static void generate(
+            File file,
+            String title,
+            int pageCount,
+            int width,
+            int height,
+            long fillerLength
+    ) throws IOException {
+        generate(file, title, pageCount, width, height, fillerLength, Map.of());
+    }
+
+    // with EXTH strings such as 100 author or 106 publishing date in place of the defaults
+    public static void generate(
+            File file,
+            String title,
+            int pageCount,
+            int width,
+            int height,
+            Map<Integer, String> exthStrings
+    ) throws IOException {
+        generate(file, title, pageCount, width, height, 0, exthStrings);
+    }
+
+    private static void generate(
+            File file,
+            String title,
+            int pageCount,
+            int width,
+            int height,
+            long fillerLength,
+            Map<Integer, String> exthStrings
+    ) throws IOException {
+        List<byte[]> records = new ArrayList<>(pageCount + 5);
+        records.add(null); // record 0 is written once the resource count is known
+        if (fillerLength > 0) {
+            records.add(null);
+        }
+        int firstImageIndex = records.size();
+        records.addAll(images(pageCount, width, height));
+        records.add(END_OF_FILE);
+
+        byte[] exth = exthHeader(pageCount + 2, pageCount, pageCount + 1, -1, exthStrings);
+        records.set(0, headerRecord(title, 1, 0, 0, 0, firstImageIndex, firstImageIndex, 1 << 16 | (records.size() - 1), exth));
+        write(file, title, records, fillerLength);
+    }
+
+    // a book without images whose text records are written as given, already
+    // compressed and with the trailing entries the flags announce
+    public static void generateText(
+            File file,
+            String title,
+            List<byte[]> textRecords,
+            int compression,
+            int extraRecordDataFlags
+    ) throws IOException {
+        List<byte[]> records = new ArrayList<>(textRecords.size() + 2);
+        records.add(null);
+        records.addAll(textRecords);
+        int textLength = textRecords.stream().mapToInt(record -> record.length).sum();
+        int firstNonBookIndex = records.size();
+        records.add(END_OF_FILE);
+
+        byte[] exth = exthHeader(0, 0, 0, -1, Map.of());
+        int content = 1 << 16 | (firstNonBookIndex - 1);
+        records.set(0, headerRecord(title, compression, textLength, textRecords.size(), extraRecordDataFlags,
+                firstNonBookIndex, firstNonBookIndex, content, exth));
+        write(file, title, records, 0);
+    }
+
+    // the KF8 text is the HTML flow followed by the CSS flow. With shared images
+    // the pages are stored once in the legacy half and the KF8 header names
+    // their absolute index, which points at no image once it is rebased
+    public static void generateHybrid(
+            File file,
+            String title,
+            String legacyTitle,
+            String html,
+            String css,
+            int pageCount,
+            int width,
+            int height,
+            boolean sharedImages
+    ) throws IOException {
+        List<byte[]> images = images(pageCount, width, height);
+        byte[] legacyText = ("<html><body><p>" + legacyTitle + "</p></body></html>").getBytes(StandardCharsets.UTF_8);
+        byte[] htmlFlow = html.getBytes(StandardCharsets.UTF_8);
+        byte[] cssFlow = css.getBytes(StandardCharsets.UTF_8);
+        byte[] text = new byte[htmlFlow.length + cssFlow.length];
+        System.arraycopy(htmlFlow, 0, text, 0, htmlFlow.length);
+        System.arraycopy(cssFlow, 0, text, htmlFlow.length, cssFlow.length);
+
+        List<byte[]> records = new ArrayList<>();
+        records.add(null); // legacy header
+        records.add(legacyText);
+        int legacyFirstImageIndex = records.size();
+        if (sharedImages) {
+            records.addAll(images);
+        }
+        records.add("BOUNDARY".getBytes(StandardCharsets.US_ASCII));
+        int boundary = records.size();
+        records.add(null); // KF8 header
+        records.add(text);
+        int firstNonBookIndex = records.size() - boundary;
+        if (!sharedImages) {
+            records.addAll(images);
+        }
+        int fdstIndex = records.size() - boundary;
+        records.add(fdst(htmlFlow.length, text.length));
+        records.add(END_OF_FILE);
+
+        int resourceCount = pageCount + 2;
+        byte[] legacyExth = exthHeader(resourceCount, pageCount, pageCount + 1, boundary, Map.of());
+        int legacyContent = 1 << 16 | (legacyFirstImageIndex - 1);
+        records.set(0, headerRecord(legacyTitle, 1, legacyText.length, 1, 0, legacyFirstImageIndex, legacyFirstImageIndex, legacyContent, legacyExth));
+        byte[] exth = exthHeader(resourceCount, pageCount, pageCount + 1, -1, Map.of());
+        int firstImageIndex = sharedImages ? legacyFirstImageIndex : firstNonBookIndex;
+        records.set(boundary, headerRecord(title, 1, text.length, 1, 0, firstNonBookIndex, firstImageIndex, fdstIndex, exth));
+        write(file, title, records, 0);
+    }
+
+    private static void write(File file, String title, List<byte[]> records, long fillerLength) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.write(palmDatabaseHeader(title, records, fillerLength));
+            for (byte[] record : records) {
+                if (record == null) {
+                    raf.seek(raf.getFilePointer() + fillerLength);
+                } else {
+                    raf.write(record);
+                }
+            }
+        }
+    }
+
+    private static byte[] palmDatabaseHeader(String title, List<byte[]> records, long fillerLength) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        byte[] name = new byte[32];
+        byte[] titleBytes = title.replace(' ', '_').getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(titleBytes, 0, name, 0, Math.min(titleBytes.length, 31));
+        out.write(name);
+        out.writeShort(0); // attributes
+        out.writeShort(0); // file version
+        int now = (int)(System.currentTimeMillis() / 1000);
+        out.writeInt(now);
+        out.writeInt(now);
+        out.writeInt(0); // last backup
+        out.writeInt(0); // modification number
+        out.writeInt(0); // app info
+        out.writeInt(0); // sort info
+        out.write("BOOK".getBytes(StandardCharsets.US_ASCII));
+        out.write("MOBI".getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(2 * records.size() - 1); // unique id seed
+        out.writeInt(0); // next record list
+        out.writeShort(records.size());
+
+        long offset = PALM_DATABASE_HEADER_LEN + (long)PALM_DATABASE_RECORD_LEN * records.size() + 2;
+        for (int i = 0; i < records.size(); i++) {
+            if (offset > 0xFFFFFFFFL) {
+                throw new IOException("Record " + i + " starts past the 4 GB a PalmDB offset can address");
+            }
+            out.writeInt((int)offset);
+            out.writeByte(0);
+            int uniqueId = 2 * i;
+            out.writeByte(uniqueId >>> 16);
+            out.writeShort(uniqueId);
+            offset += records.get(i) == null ? fillerLength : records.get(i).length;
+        }
+        out.writeShort(0); // gap before the first record
+        return buf.toByteArray();
+    }
+
+    // pages, cover and thumbnail
+    private static List<byte[]> images(int pageCount, int width, int height) throws IOException {
+        Random random = new Random(pageCount);
+        List<byte[]> images = new ArrayList<>(pageCount + 2);
+        for (int i = 0; i < pageCount; i++) {
+            images.add(page(random, i + 1, width, height));
+        }
+        images.add(page(random, 0, width, height));
+        images.add(page(random, 0, width / 8, height / 8));
+        return images;
+    }
+
+    // one start and end pair per flow
+    private static byte[] fdst(int firstFlowEnd, int textLength) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        out.write("FDST".getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(12);
+        out.writeInt(2);
+        out.writeInt(0);
+        out.writeInt(firstFlowEnd);
+        out.writeInt(firstFlowEnd);
+        out.writeInt(textLength);
+        return buf.toByteArray();
+    }
+
+    // contentIndices holds the first and last content record of a MOBI 6 header, or the FDST index of a KF8 one
+    private static byte[] headerRecord(
+            String title,
+            int compression,
+            int textLength,
+            int textRecordCount,
+            int extraRecordDataFlags,
+            int firstNonBookIndex,
+            int firstImageIndex,
+            int contentIndices,
+            byte[] exth
+    ) throws IOException {
+        byte[] fullName = title.getBytes(StandardCharsets.UTF_8);
+        int fullNameOffset = 16 + MOBI_HEADER_LEN + exth.length;
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+
+        // PalmDOC header
+        out.writeShort(compression);
+        out.writeShort(0);
+        out.writeInt(textLength);
+        out.writeShort(textRecordCount);
+        out.writeShort(4096);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        byte[] mobi = new byte[MOBI_HEADER_LEN];
+        putAscii(mobi, 0, "MOBI");
+        putInt(mobi, 4, MOBI_HEADER_LEN);
+        putInt(mobi, 8, 2); // mobipocket book
+        putInt(mobi, 12, 65001); // utf-8
+        putInt(mobi, 20, 8); // file version
+        putInt(mobi, 64, firstNonBookIndex);
+        putInt(mobi, 68, fullNameOffset);
+        putInt(mobi, 72, fullName.length);
+        putInt(mobi, 76, 9); // english
+        putInt(mobi, 92, firstImageIndex);
+        putInt(mobi, 112, 0x40); // has EXTH
+        putInt(mobi, 176, contentIndices);
+        putInt(mobi, 224, extraRecordDataFlags);
+        out.write(mobi);
+
+        out.write(exth);
+        out.write(fullName);
+        int padding = 4 - (buf.size() % 4);
+        out.write(new byte[padding]);
+        return buf.toByteArray();
+    }
+
+    // a negative boundary leaves out EXTH 121
+    private static byte[] exthHeader(
+            int resourceCount,
+            int coverIndex,
+            int thumbnailIndex,
+            int boundary,
+            Map<Integer, String> exthStrings
+    ) throws IOException {
+        Map<Integer, String> strings = new TreeMap<>(Map.of(100, "Benchmark", 524, "en", 525, "horizontal-lr"));
+        strings.putAll(exthStrings);
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int count = 0;
+        count += exthInt(out, 125, resourceCount);
+        count += exthInt(out, 201, coverIndex);
+        count += exthInt(out, 202, thumbnailIndex);
+        for (Map.Entry<Integer, String> string : strings.entrySet()) {
+            count += exthString(out, string.getKey(), string.getValue());
+        }
+        if (boundary >= 0) {
+            count += exthInt(out, 121, boundary);
+        }
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(buf);
+        header.write("EXTH".getBytes(StandardCharsets.US_ASCII));
+        header.writeInt(12 + records.size());
+        header.writeInt(count);
+        header.write(records.toByteArray());
+        int padding = (4 - (buf.size() % 4)) % 4;
+        header.write(new byte[padding]);
+        return buf.toByteArray();
+    }
+
+    private static int exthInt(DataOutputStream out, int type, int value) throws IOException {
+        out.writeInt(type);
+        out.writeInt(12);
+        out.writeInt(value);
+        return 1;
+    }
+
+    private static int exthString(DataOutputStream out, int type, String value) throws IOException {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(type);
+        out.writeInt(8 + data.length);
+        out.write(data);
+        return 1;
+    }
+
+    // noisy background so the JPEG costs about as much to decode as a scanned page
+    private static byte[] page(Random random, int number, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int grey = 200 + random.nextInt(56);
+                pixels[x] = grey << 16 | grey << 8 | grey;
+            }
+            image.setRGB(0, y, width, 1, pixels, 0, width);
+        }
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, Math.max(12, height / 6)));
+        g.drawString(number == 0 ? "Cover" : String.valueOf(number), width / 8, height / 2);
+        g.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    private static void putAscii(byte[] buf, int offset, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, buf, offset, bytes.length);
+    }
+
+    private static void putInt(byte[] buf, int offset, int value) {
+        buf[offset] = (byte)(value >>> 24);
+        buf[offset + 1] = (byte)(value >>> 16);
+        buf[offset + 2] = (byte)(value >>> 8);
+        buf[offset + 3] = (byte)value;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookTest {
+    private static final int PAGE_COUNT = 4;
+    private static final int WIDTH = 60;
+    private static final int HEIGHT = 90;
+    // the first page starts just below 2 GB and runs over it, where two 1 GB segments also meet
+    private static final long FILLER_LENGTH = (1L << 31) - 2048;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsPagesOfASmallBook() throws IOException {
+        File file = this.dir.resolve("small.azw3").toFile();
+        BookGenerator.generate(file, "Small book", PAGE_COUNT, WIDTH, HEIGHT);
+
+        try (Book book = new Book(file, Azw3Metadata.of(file))) {
+            assertEquals("Small book", book.getTitle());
+            assertEquals(PAGE_COUNT, book.getPageCount());
+            assertPages(file, book);
+        }
+    }
+
+    @Test
+    void readsTheKf8TitleAndPagesOfAHybridFile() throws IOException {
+        File file = this.dir.resolve("hybrid.azw3").toFile();
+        BookGenerator.generateHybrid(file, "KF8 title", "Legacy title", "<p>Text</p>", "", PAGE_COUNT, WIDTH, HEIGHT, true);
+
+        try (Book book = new Book(file, Azw3Metadata.of(file))) {
+            assertEquals("KF8 title", book.getTitle());
+            assertEquals(PAGE_COUNT, book.getPageCount());
+            assertPages(file, book);
+        }
+    }
+
+    // the generated file is sparse, it needs little real disk space on a file
+    // system with holes and a full 2 GB elsewhere, so it only runs in largeTest
+    @Test
+    @Tag("large")
+    void readsPagesPastTwoGigabytes() throws IOException {
+        File file = this.dir.resolve("large.azw3").toFile();
+        BookGenerator.generate(file, "Large book", PAGE_COUNT, WIDTH, HEIGHT, FILLER_LENGTH);
+        Azw3Metadata metadata = Azw3Metadata.of(file);
+        List<Azw3Metadata.PalmDatabaseRecord> records = metadata.getPalmDatabaseHeader().records();
+        int firstImageIndex = metadata.getMobiHeader().firstImageIndex();
+        assertTrue(records.get(firstImageIndex).offset() < Integer.MAX_VALUE);
+        assertTrue(records.get(firstImageIndex + 1).offset() > Integer.MAX_VALUE);
+
+        try (Book book = new Book(file, metadata)) {
+            assertEquals(PAGE_COUNT, book.getPageCount());
+            assertPages(file, book);
+        }
+        try (Book book = new Book(file, metadata, false)) {
+            assertPages(file, book);
+        }
+    }
+
+    @Test
+    void failsToReadAfterClose() throws IOException {
+        File file = this.dir.resolve("closed.azw3").toFile();
+        BookGenerator.generate(file, "Closed book", PAGE_COUNT, WIDTH, HEIGHT);
+        Book book = new Book(file, Azw3Metadata.of(file));
+        book.getPageBytes(0);
+        book.close();
+
+        assertThrows(RuntimeException.class, () -> book.getPageBytes(0));
+    }
+
+    private static void assertPages(File file, Book book) throws IOException {
+        Azw3Metadata metadata = book.getMetadata();
+        List<Azw3Metadata.PalmDatabaseRecord> records = metadata.getPalmDatabaseHeader().records();
+        int firstImageIndex = metadata.getMobiHeader().firstImageIndex();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = 0; i < book.getPageCount(); i++) {
+                long offset = records.get(firstImageIndex + i).offset();
+                long next = records.get(firstImageIndex + i + 1).offset();
+                byte[] expected = new byte[(int)(next - offset)];
+                raf.seek(offset);
+                raf.readFully(expected);
+
+                assertArrayEquals(expected, book.getPageBytes(i), "page " + i + " at " + offset);
+                assertEquals(WIDTH, book.getPageSize(i).getWidth(), "page " + i + " at " + offset);
+                assertEquals(HEIGHT, book.getPageSize(i).getHeight(), "page " + i + " at " + offset);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BookTextTest {
+    private static final int NO_COMPRESSION = 1;
+    private static final int PALMDOC_COMPRESSION = 2;
+    private static final int HUFF_CDIC_COMPRESSION = 17480;
+    // multibyte overlap bytes and one more trailing entry
+    private static final int TRAILING_ENTRIES = 0b11;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsTheKf8TextOfAHybridFile() throws IOException {
+        File file = this.dir.resolve("hybrid.azw3").toFile();
+        String html = "<html><head><title>Head</title></head><body>"
+                + "<h1>Chapter 1</h1><p>First  paragraph</p><div>Second &amp; last</div></body></html>";
+        // the CSS flow follows the HTML flow and is cut off at the end the FDST record gives
+        BookGenerator.generateHybrid(file, "KF8 title", "Legacy title", html, "p { margin: 0 }", 2, 60, 90, false);
+
+        try (Book book = new Book(file, Azw3Metadata.of(file), false)) {
+            BookText text = BookText.of(book);
+            assertEquals(List.of("Chapter 1", "First paragraph", "Second & last"), text.getParagraphs());
+            assertEquals("Chapter 1First paragraph".length(), text.getParagraphStart(2));
+            assertEquals(2, text.paragraphAt(text.getLength() - 1));
+        }
+    }
+
+    @Test
+    void decompressesPalmDocRecords() throws IOException {
+        File file = this.dir.resolve("palmdoc.azw3").toFile();
+        byte[] first = bytes(
+                "<p>abc",
+                // 3 back and 6 long, the copy overlaps the bytes it writes
+                new byte[]{(byte)0x80, 0x1B},
+                "</p>"
+        );
+        byte[] second = bytes(
+                "<p>",
+                // a run of 3 literal bytes, then a space and a character in one byte
+                new byte[]{0x03, 'S', 'a', 'y', (byte)0xE8},
+                "i</p>",
+                // a pair that points before the start of the record is dropped
+                new byte[]{(byte)0x87, (byte)0xFF}
+        );
+        BookGenerator.generateText(file, "Text", List.of(first, second), PALMDOC_COMPRESSION, 0);
+
+        assertEquals(List.of("abcabcabc", "Say hi"), paragraphs(file));
+    }
+
+    @Test
+    void dropsTrailingEntriesOfEveryRecord() throws IOException {
+        File file = this.dir.resolve("trailing.azw3").toFile();
+        File plainFile = this.dir.resolve("trailing-plain.azw3").toFile();
+        // an overlap byte and its count, then an entry of three bytes ending in its size
+        byte[] trailing = {'Z', 0x01, 0x11, 0x22, (byte)0x83};
+        List<byte[]> compressed = List.of(
+                bytes("<p>abc", new byte[]{(byte)0x80, 0x1B}, "</p>", trailing),
+                bytes("<p>Second</p>", trailing)
+        );
+        BookGenerator.generateText(file, "Text", compressed, PALMDOC_COMPRESSION, TRAILING_ENTRIES);
+        assertEquals(List.of("abcabcabc", "Second"), paragraphs(file));
+
+        List<byte[]> plain = List.of(bytes("<p>First</p>", trailing), bytes("<p>Second</p>", trailing));
+        BookGenerator.generateText(plainFile, "Text", plain, NO_COMPRESSION, TRAILING_ENTRIES);
+        assertEquals(List.of("First", "Second"), paragraphs(plainFile));
+    }
+
+    @Test
+    void decodesTheTextARecordAtATime() throws IOException {
+        File file = this.dir.resolve("records.azw3").toFile();
+        byte[] accent = "é".getBytes(StandardCharsets.UTF_8);
+        // a tag, an entity and a character cut in half by the end of a record
+        List<byte[]> records = List.of(
+                bytes("<p>First</p><p>Caf", new byte[]{accent[0]}),
+                bytes(new byte[]{accent[1]}, " &am"),
+                bytes("p; more</p><p>Third</"),
+                bytes("p>")
+        );
+        BookGenerator.generateText(file, "Text", records, NO_COMPRESSION, 0);
+
+        try (Book book = new Book(file, Azw3Metadata.of(file), false)) {
+            BookText text = BookText.open(book);
+            assertEquals(0, text.getParagraphCount());
+            assertTrue(text.decode(1));
+            assertEquals(List.of("First"), text.getParagraphs());
+            assertTrue(text.decode(2));
+            assertEquals(List.of("First", "Café & more"), text.getParagraphs());
+            assertFalse(text.isComplete());
+            assertFalse(text.decode(1));
+            assertTrue(text.isComplete());
+            assertEquals(List.of("First", "Café & more", "Third"), text.getParagraphs());
+            assertEquals(text.getLength(), text.getParagraphStart(text.getParagraphCount()));
+            assertEquals(1.0, text.fractionAt(text.getLength()));
+        }
+    }
+
+    @Test
+    void rejectsHuffCdicText() throws IOException {
+        File file = this.dir.resolve("huff.azw3").toFile();
+        BookGenerator.generateText(file, "Text", List.of(bytes("<p>Text</p>")), HUFF_CDIC_COMPRESSION, 0);
+
+        try (Book book = new Book(file, Azw3Metadata.of(file), false)) {
+            assertThrows(IOException.class, () -> BookText.of(book));
+        }
+    }
+
+    private static List<String> paragraphs(File file) throws IOException {
+        try (Book book = new Book(file, Azw3Metadata.of(file), false)) {
+            return BookText.of(book).getParagraphs();
+        }
+    }
+
+    private static byte[] bytes(Object... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Object part : parts) {
+            byte[] bytes = part instanceof String text ? text.getBytes(StandardCharsets.US_ASCII) : (byte[])part;
+            out.writeBytes(bytes);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FingerprintIndexTest {
+    private static final int PAGE_COUNT = 5;
+
+    @TempDir
+    Path dir;
+
+    private final TaskScheduler scheduler = new TaskScheduler(2, 2);
+    private final AtomicInteger reads = new AtomicInteger();
+
+    @AfterEach
+    void stop() {
+        this.scheduler.shutdown();
+    }
+
+    @Test
+    void findsACopyOfABook() throws IOException, InterruptedException {
+        File original = book("original", PAGE_COUNT);
+        File copy = this.dir.resolve("copy.azw3").toFile();
+        Files.copy(original.toPath(), copy.toPath());
+        File other = book("other", PAGE_COUNT + 1);
+
+        FingerprintIndex index = new FingerprintIndex(this.scheduler);
+        index(index, original, copy, other);
+
+        List<FingerprintIndex.Match> matches = index.findDuplicates(original, 0.8);
+        assertEquals(1, matches.size());
+        assertEquals(copy, matches.getFirst().duplicate());
+        assertTrue(matches.getFirst().exact());
+    }
+
+    @Test
+    void hashesOnlyBooksThatChangedSinceTheLastRun() throws IOException, InterruptedException {
+        Path store = this.dir.resolve("store").resolve("fingerprints.bin");
+        File first = book("first", PAGE_COUNT);
+        File second = book("second", PAGE_COUNT);
+        index(new FingerprintIndex(this.scheduler, store), first, second);
+        assertEquals(2 * PAGE_COUNT, this.reads.getAndSet(0));
+
+        FingerprintIndex restarted = new FingerprintIndex(this.scheduler, store);
+        assertEquals(2, restarted.size());
+        index(restarted, first, second);
+        assertEquals(0, this.reads.get());
+
+        assertTrue(second.setLastModified(second.lastModified() - 60_000));
+        index(restarted, first, second);
+        assertEquals(PAGE_COUNT, this.reads.get());
+    }
+
+    @Test
+    void dropsStoredBooksThatAreGone() throws IOException, InterruptedException {
+        Path store = this.dir.resolve("fingerprints.bin");
+        File kept = book("kept", PAGE_COUNT);
+        File deleted = book("deleted", PAGE_COUNT);
+        index(new FingerprintIndex(this.scheduler, store), kept, deleted);
+        Files.delete(deleted.toPath());
+
+        assertEquals(1, new FingerprintIndex(this.scheduler, store).size());
+    }
+
+    private File book(String name, int pageCount) throws IOException {
+        File file = this.dir.resolve(name + ".azw3").toFile();
+        BookGenerator.generate(file, name, pageCount, 16, 24);
+        return file;
+    }
+
+    private void index(FingerprintIndex index, File... files) throws IOException, InterruptedException {
+        List<Book> books = new ArrayList<>();
+        for (File file : files) {
+            books.add(new Book(file, Azw3Metadata.of(file), false) {
+                @Override
+                public byte[] getPageBytes(int page) {
+                    reads.incrementAndGet();
+                    return super.getPageBytes(page);
+                }
+            });
+        }
+        try {
+            index.index(books);
+        } finally {
+            books.forEach(Book::close);
+        }
+    }
+}
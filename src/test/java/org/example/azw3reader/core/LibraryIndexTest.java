@@ -0,0 +1,123 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.example.azw3reader.core.LibraryIndex.Filter.between;
+import static org.example.azw3reader.core.LibraryIndex.Filter.equalTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LibraryIndexTest {
+    @TempDir
+    Path dir;
+
+    private LibraryIndex index;
+    private Library.Entry banana;
+    private Library.Entry upperApple;
+    private Library.Entry cherry;
+    private Library.Entry lowerApple;
+
+    @BeforeEach
+    void addBooks() throws IOException {
+        this.banana = entry("banana", "banana", 3, Map.of(100, "Ann", 106, "2001-05-01"));
+        this.upperApple = entry("upper-apple", "Apple", 1, Map.of(100, "Bob", 106, "1999", 524, "ja", 527, "vertical-rl"));
+        this.cherry = entry("cherry", "cherry", 5, Map.of(100, "Ann", 106, "2010"));
+        this.lowerApple = entry("lower-apple", "apple", 2, Map.of(100, "Cy"));
+        this.index = new LibraryIndex();
+        for (Library.Entry entry : List.of(this.banana, this.upperApple, this.cherry, this.lowerApple)) {
+            this.index.add(entry);
+        }
+    }
+
+    // ties keep the order the books were added in, a descending sort reverses them too
+    @Test
+    void sortsStringsIgnoringCase() {
+        assertEquals(List.of(this.upperApple, this.lowerApple, this.banana, this.cherry),
+                this.index.query(List.of(), LibraryIndex.StringColumn.TITLE, true));
+        assertEquals(List.of(this.cherry, this.banana, this.lowerApple, this.upperApple),
+                this.index.query(List.of(), LibraryIndex.StringColumn.TITLE, false));
+    }
+
+    @Test
+    void sortsInts() {
+        assertEquals(List.of(this.upperApple, this.lowerApple, this.banana, this.cherry),
+                this.index.query(List.of(), LibraryIndex.IntColumn.PAGE_COUNT, true));
+        // no date is year 0
+        assertEquals(List.of(this.cherry, this.banana, this.upperApple, this.lowerApple),
+                this.index.query(List.of(), LibraryIndex.IntColumn.PUBLISHED_YEAR, false));
+    }
+
+    @Test
+    void filtersOnEveryCondition() {
+        LibraryIndex.StringColumn title = LibraryIndex.StringColumn.TITLE;
+        assertEquals(List.of(this.banana, this.cherry),
+                this.index.query(List.of(equalTo(LibraryIndex.StringColumn.AUTHOR, "Ann")), title, true));
+        assertEquals(List.of(this.cherry), this.index.query(List.of(
+                equalTo(LibraryIndex.StringColumn.AUTHOR, "Ann"),
+                between(LibraryIndex.IntColumn.PAGE_COUNT, 4, 10)
+        ), title, true));
+        assertEquals(List.of(this.banana),
+                this.index.query(List.of(between(LibraryIndex.IntColumn.PUBLISHED_YEAR, 2000, 2005)), title, true));
+        // EXTH 527 wins over 525
+        assertEquals(List.of(this.upperApple),
+                this.index.query(List.of(equalTo(LibraryIndex.StringColumn.WRITING_MODE, "vertical-rl")), title, true));
+        assertEquals(List.of(),
+                this.index.query(List.of(equalTo(LibraryIndex.StringColumn.AUTHOR, "Nobody")), title, true));
+    }
+
+    @Test
+    void countsFacetsMostCommonFirst() {
+        Map<String, Integer> authors = this.index.facets(LibraryIndex.StringColumn.AUTHOR, List.of());
+        assertEquals(Map.of("Ann", 2, "Bob", 1, "Cy", 1), authors);
+        assertEquals("Ann", authors.keySet().iterator().next());
+
+        assertEquals(Map.of("Ann", 2, "Cy", 1), this.index.facets(
+                LibraryIndex.StringColumn.AUTHOR,
+                List.of(between(LibraryIndex.IntColumn.PAGE_COUNT, 2, 5))
+        ));
+        assertEquals(Map.of("en", 3, "ja", 1), this.index.facets(LibraryIndex.StringColumn.LANGUAGE, List.of()));
+    }
+
+    @Test
+    void dropsValuesNoBookHolds() throws IOException {
+        this.index.remove(this.cherry.file());
+        Library.Entry renamed = entry("banana", "banana", 3, Map.of(100, "Dee"));
+        this.index.add(renamed);
+
+        assertEquals(3, this.index.size());
+        assertEquals(Map.of("Bob", 1, "Cy", 1, "Dee", 1), this.index.facets(LibraryIndex.StringColumn.AUTHOR, List.of()));
+        assertEquals(List.of(), this.index.query(
+                List.of(equalTo(LibraryIndex.StringColumn.AUTHOR, "Ann")), LibraryIndex.StringColumn.TITLE, true));
+
+        // the code Ann gave back is taken by a value that sorts first
+        Library.Entry date = entry("date", "date", 1, Map.of(100, "Aaron"));
+        this.index.add(date);
+        assertEquals(List.of(date, this.upperApple, this.lowerApple, renamed),
+                this.index.query(List.of(), LibraryIndex.StringColumn.AUTHOR, true));
+    }
+
+    @Test
+    void appliesLibraryChanges() throws IOException {
+        Library.Entry date = entry("date", "date", 4, Map.of(100, "Cy"));
+        Library.Entry shorter = entry("cherry", "cherry", 3, Map.of(100, "Ann"));
+        this.index.apply(new Library.Change(List.of(date), List.of(shorter), List.of(this.banana.file())));
+
+        assertEquals(4, this.index.size());
+        assertEquals(List.of(this.upperApple, this.lowerApple, shorter, date),
+                this.index.query(List.of(), LibraryIndex.IntColumn.PAGE_COUNT, true));
+    }
+
+    // file names differ in more than case, so they also differ on case insensitive file systems
+    private Library.Entry entry(String name, String title, int pageCount, Map<Integer, String> exth) throws IOException {
+        File file = this.dir.resolve(name + ".azw3").toFile();
+        BookGenerator.generate(file, title, pageCount, 16, 24, exth);
+        return Library.Entry.of(file, Azw3Metadata.of(file), title);
+    }
+}
@@ -0,0 +1,91 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SegmentedFileTest {
+    private static final int SEGMENT_SIZE = 64;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsWithinAndAcrossSegments() throws IOException {
+        byte[] content = randomBytes(5 * SEGMENT_SIZE + 17);
+        SegmentedFile file = new SegmentedFile(write(content), SEGMENT_SIZE);
+
+        assertEquals(content.length, file.size());
+        assertRead(content, file, 0, 10);
+        assertRead(content, file, SEGMENT_SIZE - 4, 8);
+        assertRead(content, file, SEGMENT_SIZE, SEGMENT_SIZE);
+        // spans three segments
+        assertRead(content, file, SEGMENT_SIZE - 1, 2 * SEGMENT_SIZE + 2);
+        // ends in the short last segment
+        assertRead(content, file, content.length - 20, 20);
+        assertRead(content, file, 0, content.length);
+        assertRead(content, file, 100, 0);
+    }
+
+    @Test
+    void readsIntoAnOffsetOfTheDestination() throws IOException {
+        byte[] content = randomBytes(3 * SEGMENT_SIZE);
+        SegmentedFile file = new SegmentedFile(write(content), SEGMENT_SIZE);
+
+        byte[] dst = new byte[SEGMENT_SIZE + 10];
+        file.read(SEGMENT_SIZE - 5, dst, 10, SEGMENT_SIZE);
+        assertArrayEquals(Arrays.copyOfRange(content, SEGMENT_SIZE - 5, 2 * SEGMENT_SIZE - 5), Arrays.copyOfRange(dst, 10, dst.length));
+    }
+
+    @Test
+    void rejectsReadsOutsideOfTheFile() throws IOException {
+        SegmentedFile file = new SegmentedFile(write(randomBytes(2 * SEGMENT_SIZE)), SEGMENT_SIZE);
+
+        assertThrows(IOException.class, () -> file.read(-1, 4));
+        assertThrows(IOException.class, () -> file.read(2 * SEGMENT_SIZE - 3, 4));
+        assertThrows(IOException.class, () -> file.read(0, -1));
+    }
+
+    @Test
+    void rejectsReadsAfterClose() throws IOException {
+        SegmentedFile file = new SegmentedFile(write(randomBytes(2 * SEGMENT_SIZE)), SEGMENT_SIZE);
+        file.close();
+
+        assertThrows(IOException.class, () -> file.read(0, 4));
+    }
+
+    @Test
+    void readsAnEmptyFile() throws IOException {
+        SegmentedFile file = new SegmentedFile(write(new byte[0]), SEGMENT_SIZE);
+
+        assertEquals(0, file.size());
+        assertEquals(0, file.read(0, 0).length);
+        assertThrows(IOException.class, () -> file.read(0, 1));
+    }
+
+    private File write(byte[] content) throws IOException {
+        Path path = Files.createTempFile(this.dir, "segmented", ".bin");
+        Files.write(path, content);
+        return path.toFile();
+    }
+
+    private static void assertRead(byte[] content, SegmentedFile file, long offset, int len) throws IOException {
+        assertArrayEquals(Arrays.copyOfRange(content, (int)offset, (int)offset + len), file.read(offset, len));
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte[] bytes = new byte[len];
+        new Random(len).nextBytes(bytes);
+        return bytes;
+    }
+}
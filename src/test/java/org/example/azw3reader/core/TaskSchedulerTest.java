@@ -0,0 +1,208 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// two workers per pool, the reserved one for visible pages and one for the
+// rest, so blocking the second one lets a test line up queued work
+@Timeout(10)
+class TaskSchedulerTest {
+    private final Object owner = new Object();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> ran = new CopyOnWriteArrayList<>();
+    private TaskScheduler scheduler;
+
+    @BeforeEach
+    void start() {
+        this.scheduler = new TaskScheduler(2, 2);
+    }
+
+    @AfterEach
+    void stop() {
+        this.release.countDown();
+        this.scheduler.shutdown();
+    }
+
+    @Test
+    void runsHigherPrioritiesFirstAndEachInSubmitOrder() throws InterruptedException {
+        blockWorker(TaskScheduler.Resource.IO);
+        record("indexing", TaskScheduler.Priority.INDEXING);
+        record("thumbnail", TaskScheduler.Priority.THUMBNAIL);
+        record("prefetch 1", TaskScheduler.Priority.PREFETCH);
+        TaskScheduler.Ticket last = record("prefetch 2", TaskScheduler.Priority.PREFETCH);
+        assertEquals(4, this.scheduler.getQueueDepth(TaskScheduler.Resource.IO));
+
+        this.release.countDown();
+        awaitAll();
+        assertEquals(List.of("prefetch 1", "prefetch 2", "thumbnail", "indexing"), this.ran);
+        assertEquals(TaskScheduler.Priority.PREFETCH, last.getPriority());
+    }
+
+    @Test
+    void runsVisiblePagesWhileTheOtherWorkersAreBusy() throws InterruptedException {
+        blockWorker(TaskScheduler.Resource.IO);
+        record("prefetch", TaskScheduler.Priority.PREFETCH);
+        record("visible", TaskScheduler.Priority.VISIBLE_PAGE).await();
+
+        assertEquals(List.of("visible"), this.ran);
+        this.release.countDown();
+        awaitAll();
+        assertEquals(List.of("visible", "prefetch"), this.ran);
+    }
+
+    @Test
+    void dropsCancelledWork() throws InterruptedException {
+        blockWorker(TaskScheduler.Resource.IO);
+        TaskScheduler.Ticket cancelled = record("cancelled", TaskScheduler.Priority.THUMBNAIL);
+        Object other = new Object();
+        this.scheduler.submit(other, TaskScheduler.Priority.THUMBNAIL, TaskScheduler.Resource.IO, () -> this.ran.add("other"));
+        record("owner", TaskScheduler.Priority.INDEXING);
+        cancelled.cancel();
+        // returns once the cancelled ticket is out of the queue, it never runs
+        cancelled.await();
+        assertTrue(cancelled.isCancelled());
+        this.scheduler.cancelAll(this.owner);
+
+        this.release.countDown();
+        awaitAll();
+        assertEquals(List.of("other"), this.ran);
+    }
+
+    @Test
+    void movesQueuedWorkToAnotherPriority() throws InterruptedException {
+        blockWorker(TaskScheduler.Resource.IO);
+        record("thumbnail", TaskScheduler.Priority.THUMBNAIL);
+        TaskScheduler.Ticket promoted = record("promoted", TaskScheduler.Priority.INDEXING);
+        TaskScheduler.Ticket demoted = record("demoted", TaskScheduler.Priority.PREFETCH);
+        promoted.setPriority(TaskScheduler.Priority.PREFETCH);
+        demoted.setPriority(TaskScheduler.Priority.INDEXING);
+
+        this.release.countDown();
+        awaitAll();
+        assertEquals(List.of("promoted", "thumbnail", "demoted"), this.ran);
+    }
+
+    // the decode is dropped when the ticket is cancelled during the read
+    @Test
+    void skipsTheDecodeOfWorkCancelledWhileReading() throws InterruptedException {
+        CountDownLatch reading = new CountDownLatch(1);
+        AtomicBoolean decoded = new AtomicBoolean();
+        TaskScheduler.Ticket ticket = this.scheduler.submit(this.owner, TaskScheduler.Priority.PREFETCH, () -> {
+            reading.countDown();
+            this.release.await();
+            return "page";
+        }, _ -> decoded.set(true));
+        reading.await();
+        ticket.cancel();
+        this.release.countDown();
+
+        ticket.await();
+        awaitAll();
+        assertFalse(decoded.get());
+    }
+
+    @Test
+    void releasesTheTicketWhenTheReadThrowsAnError() throws InterruptedException {
+        AtomicBoolean decoded = new AtomicBoolean();
+        TaskScheduler.Ticket ticket = this.scheduler.submit(this.owner, TaskScheduler.Priority.VISIBLE_PAGE, () -> {
+            throw new OutOfMemoryError("page");
+        }, _ -> decoded.set(true));
+
+        ticket.await();
+        assertFalse(decoded.get());
+    }
+
+    @Test
+    void decodesOnTheCpuPool() throws InterruptedException {
+        AtomicReference<String> decodedOn = new AtomicReference<>();
+        TaskScheduler.Ticket ticket = this.scheduler.submit(this.owner, TaskScheduler.Priority.VISIBLE_PAGE,
+                () -> Thread.currentThread().getName(),
+                readOn -> decodedOn.set(readOn + " " + Thread.currentThread().getName()));
+        ticket.await();
+
+        assertTrue(decodedOn.get().matches("io-worker-\\d+ cpu-worker-\\d+"), decodedOn.get());
+    }
+
+    @Test
+    void knowsTheTicketOfTheRunningWork() throws InterruptedException {
+        AtomicReference<TaskScheduler.Ticket> current = new AtomicReference<>();
+        TaskScheduler.Ticket ticket = this.scheduler.submit(this.owner, TaskScheduler.Priority.THUMBNAIL,
+                TaskScheduler.Resource.CPU, () -> current.set(TaskScheduler.current()));
+        ticket.await();
+
+        assertSame(ticket, current.get());
+        assertNull(TaskScheduler.current());
+    }
+
+    @Test
+    void keepsResultsInTaskOrder() throws InterruptedException {
+        List<Callable<Integer>> tasks = List.of(
+                () -> 1,
+                () -> {
+                    throw new IllegalStateException("failed task");
+                },
+                () -> 3
+        );
+        List<Integer> results = this.scheduler.invokeAll(this.owner, TaskScheduler.Priority.INDEXING,
+                TaskScheduler.Resource.CPU, tasks);
+
+        assertEquals(Arrays.asList(1, null, 3), results);
+    }
+
+    @Test
+    void keepsWorkingAfterAnError() throws InterruptedException {
+        for (int i = 0; i < 4; i++) {
+            this.scheduler.submit(this.owner, TaskScheduler.Priority.VISIBLE_PAGE, TaskScheduler.Resource.CPU, () -> {
+                throw new OutOfMemoryError("decode");
+            }).await();
+        }
+        record("after", TaskScheduler.Priority.VISIBLE_PAGE, TaskScheduler.Resource.CPU).await();
+
+        assertEquals(List.of("after"), this.ran);
+    }
+
+    // takes the one worker that runs more than visible pages until release
+    private void blockWorker(TaskScheduler.Resource resource) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        this.scheduler.submit(new Object(), TaskScheduler.Priority.INDEXING, resource, () -> {
+            started.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+    }
+
+    private TaskScheduler.Ticket record(String name, TaskScheduler.Priority priority) {
+        return record(name, priority, TaskScheduler.Resource.IO);
+    }
+
+    private TaskScheduler.Ticket record(String name, TaskScheduler.Priority priority, TaskScheduler.Resource resource) {
+        return this.scheduler.submit(this.owner, priority, resource, () -> this.ran.add(name));
+    }
+
+    // a task queued behind everything else on both pools
+    private void awaitAll() throws InterruptedException {
+        for (TaskScheduler.Resource resource : TaskScheduler.Resource.values()) {
+            this.scheduler.submit(new Object(), TaskScheduler.Priority.INDEXING, resource, () -> {}).await();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.example.azw3reader.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ZipPageSourceTest {
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsImagesInNaturalOrder() throws IOException {
+        File file = this.dir.resolve("Some comic.cbz").toFile();
+        byte[] page1 = randomBytes(1, 5000);
+        byte[] page2 = randomBytes(2, 300);
+        byte[] page3 = new byte[20000]; // compresses well
+        byte[] page10 = randomBytes(10, 70);
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            zip.setComment("a comment the end of central directory search has to skip");
+            add(zip, "page10.jpg", page10);
+            add(zip, "notes.txt", randomBytes(0, 10));
+            add(zip, "pages/", new byte[0]);
+            addStored(zip, "Page2.JPG", page2);
+            add(zip, "__MACOSX/page1.png", randomBytes(0, 10));
+            add(zip, "page003.gif", page3);
+            addStored(zip, "page1.png", page1);
+        }
+
+        try (ZipPageSource source = ZipPageSource.of(file)) {
+            assertEquals(4, source.getPageCount());
+            assertArrayEquals(page1, source.getPageBytes(0));
+            assertArrayEquals(page2, source.getPageBytes(1));
+            assertArrayEquals(page3, source.getPageBytes(2));
+            assertArrayEquals(page10, source.getPageBytes(3));
+            assertNull(source.getPageBytes(4));
+            assertEquals("Some comic", source.getTitle());
+            assertTrue(source.leftToRight());
+        }
+    }
+
+    @Test
+    void readsTitleAndDirectionFromComicInfo() throws IOException {
+        File file = this.dir.resolve("comic.cbz").toFile();
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+            add(zip, "1.jpg", randomBytes(1, 100));
+            String comicInfo = "<ComicInfo><Title> Manga title </Title><Manga>YesAndRightToLeft</Manga></ComicInfo>";
+            add(zip, "ComicInfo.xml", comicInfo.getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (ZipPageSource source = ZipPageSource.of(file)) {
+            assertEquals(1, source.getPageCount());
+            assertEquals("Manga title", source.getTitle());
+            assertFalse(source.leftToRight());
+        }
+    }
+
+    // every size and offset sits in the zip64 records, the 32 bit fields only hold the marker
+    @Test
+    void readsZip64Records() throws IOException {
+        File file = this.dir.resolve("zip64.cbz").toFile();
+        byte[] first = randomBytes(1, 1000);
+        byte[] second = randomBytes(2, 2000);
+        byte[] secret = randomBytes(3, 10);
+        writeZip64(file, List.of("b.jpg", "secret.jpg", "a.jpg"), List.of(second, secret, first));
+
+        try (ZipPageSource source = ZipPageSource.of(file)) {
+            assertEquals(2, source.getPageCount());
+            assertArrayEquals(first, source.getPageBytes(0));
+            assertArrayEquals(second, source.getPageBytes(1));
+        }
+    }
+
+    @Test
+    void rejectsFilesWithoutCentralDirectory() throws IOException {
+        File file = this.dir.resolve("broken.cbz").toFile();
+        Files.write(file.toPath(), randomBytes(4, 3000));
+
+        assertThrows(IOException.class, () -> ZipPageSource.of(file));
+    }
+
+    private static void add(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    private static void addStored(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc(data));
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+
+    // stored entries, the one named secret is flagged as encrypted
+    private static void writeZip64(File file, List<String> names, List<byte[]> contents) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        long[] offsets = new long[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] data = contents.get(i);
+            offsets[i] = buf.position();
+            buf.putInt(0x04034b50);
+            buf.putShort((short)45);
+            buf.putShort((short)flags(names.get(i)));
+            buf.putShort((short)0); // stored
+            buf.putInt(0); // time and date
+            buf.putInt((int)crc(data));
+            buf.putInt((int)ZIP64_MARKER);
+            buf.putInt((int)ZIP64_MARKER);
+            buf.putShort((short)name.length);
+            buf.putShort((short)20);
+            buf.put(name);
+            buf.putShort((short)1);
+            buf.putShort((short)16);
+            buf.putLong(data.length);
+            buf.putLong(data.length);
+            buf.put(data);
+        }
+
+        long directoryOffset = buf.position();
+        for (int i = 0; i < names.size(); i++) {
+            byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] data = contents.get(i);
+            buf.putInt(0x02014b50);
+            buf.putShort((short)45);
+            buf.putShort((short)45);
+            buf.putShort((short)flags(names.get(i)));
+            buf.putShort((short)0);
+            buf.putInt(0);
+            buf.putInt((int)crc(data));
+            buf.putInt((int)ZIP64_MARKER);
+            buf.putInt((int)ZIP64_MARKER);
+            buf.putShort((short)name.length);
+            buf.putShort((short)28);
+            buf.putShort((short)0); // comment
+            buf.putShort((short)0); // disk
+            buf.putShort((short)0); // internal attributes
+            buf.putInt(0); // external attributes
+            buf.putInt((int)ZIP64_MARKER);
+            buf.put(name);
+            buf.putShort((short)1);
+            buf.putShort((short)24);
+            buf.putLong(data.length);
+            buf.putLong(data.length);
+            buf.putLong(offsets[i]);
+        }
+        long directorySize = buf.position() - directoryOffset;
+
+        long zip64End = buf.position();
+        buf.putInt(0x06064b50);
+        buf.putLong(44);
+        buf.putShort((short)45);
+        buf.putShort((short)45);
+        buf.putInt(0);
+        buf.putInt(0);
+        buf.putLong(names.size());
+        buf.putLong(names.size());
+        buf.putLong(directorySize);
+        buf.putLong(directoryOffset);
+
+        buf.putInt(0x07064b50);
+        buf.putInt(0);
+        buf.putLong(zip64End);
+        buf.putInt(1);
+
+        buf.putInt(0x06054b50);
+        buf.putShort((short)0);
+        buf.putShort((short)0);
+        buf.putShort((short)0xFFFF);
+        buf.putShort((short)0xFFFF);
+        buf.putInt((int)ZIP64_MARKER);
+        buf.putInt((int)ZIP64_MARKER);
+        buf.putShort((short)0);
+
+        Files.write(file.toPath(), Arrays.copyOf(buf.array(), buf.position()));
+    }
+
+    private static int flags(String name) {
+        return name.startsWith("secret") ? 1 : 0;
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] randomBytes(int seed, int len) {
+        byte[] bytes = new byte[len];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,67 @@
+package org.example.azw3reader.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HashUtilsTest {
+    private static final long PRIME32 = 2654435761L;
+    private static final long PRIME64 = 0x9E3779B185EBCA8DL;
+
+    // the sanity check buffer of the reference implementation
+    private static final byte[] SANITY_BUFFER = sanityBuffer(2367);
+
+    @Test
+    void matchesTheReferenceVectors() {
+        assertHash(0xEF46DB3751D8E999L, 0, 0);
+        assertHash(0xAC75FDA2929B17EFL, 0, PRIME32);
+        assertHash(0xE934A84ADB052768L, 1, 0);
+        assertHash(0x5014607643A9B4C3L, 1, PRIME32);
+        assertHash(0x9136A0DCA57457EEL, 4, 0);
+        assertHash(0xCAAB286BD8E9FDB5L, 4, PRIME32);
+        assertHash(0x8282DCC4994E35C8L, 14, 0);
+        assertHash(0xC3BD6BF63DEB6DF0L, 14, PRIME32);
+        assertHash(0xB641AE8CB691C174L, 222, 0);
+        assertHash(0x20CB8AB7AE10C14AL, 222, PRIME32);
+        assertHash(0xA82418DDEC0EA581L, 2367, 0);
+        assertHash(0xA36A93C18052673AL, 2367, PRIME32);
+    }
+
+    @Test
+    void hashesStrings() {
+        assertEquals(0xEF46DB3751D8E999L, HashUtils.xxHash64(new byte[0]));
+        assertEquals(0xD24EC4F1A98C6E5BL, HashUtils.xxHash64("a".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0x44BC2CF5AD770999L, HashUtils.xxHash64("abc".getBytes(StandardCharsets.US_ASCII)));
+        byte[] fox = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x0B242D361FDA71BCL, HashUtils.xxHash64(fox));
+    }
+
+    @Test
+    void hashesOnlyTheGivenRange() {
+        for (int offset : new int[]{1, 3, 8, 17}) {
+            for (int len : new int[]{0, 7, 31, 32, 100}) {
+                byte[] range = Arrays.copyOfRange(SANITY_BUFFER, offset, offset + len);
+                assertEquals(HashUtils.xxHash64(range, 0, len, PRIME32),
+                        HashUtils.xxHash64(SANITY_BUFFER, offset, len, PRIME32),
+                        "offset " + offset + " length " + len);
+            }
+        }
+    }
+
+    private static void assertHash(long expected, int len, long seed) {
+        assertEquals(expected, HashUtils.xxHash64(SANITY_BUFFER, 0, len, seed), "length " + len + " seed " + seed);
+    }
+
+    private static byte[] sanityBuffer(int len) {
+        byte[] buffer = new byte[len];
+        long byteGen = PRIME32;
+        for (int i = 0; i < len; i++) {
+            buffer[i] = (byte)(byteGen >>> 56);
+            byteGen *= PRIME64;
+        }
+        return buffer;
+    }
+}
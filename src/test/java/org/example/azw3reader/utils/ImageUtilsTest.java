@@ -0,0 +1,58 @@
+package org.example.azw3reader.utils;
+
+import javafx.geometry.Dimension2D;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ImageUtilsTest {
+    @Test
+    void probesTheSizeOfEveryFormat() throws IOException {
+        for (String format : new String[]{"jpg", "png", "gif"}) {
+            Dimension2D size = ImageUtils.probeSize(encode(format, 300, 421));
+            assertEquals(300, size.getWidth(), format);
+            assertEquals(421, size.getHeight(), format);
+        }
+    }
+
+    // the frame header of a JPEG follows the segments in front of it
+    @Test
+    void skipsSegmentsAndFillBytesBeforeTheFrameHeader() throws IOException {
+        byte[] jpeg = encode("jpg", 17, 1200);
+        byte[] segment = {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFE, 0, 6, 'a', 'b', 'c', 'd'};
+        byte[] data = new byte[jpeg.length + segment.length];
+        System.arraycopy(jpeg, 0, data, 0, 2);
+        System.arraycopy(segment, 0, data, 2, segment.length);
+        System.arraycopy(jpeg, 2, data, 2 + segment.length, jpeg.length - 2);
+
+        Dimension2D size = ImageUtils.probeSize(data);
+        assertEquals(17, size.getWidth());
+        assertEquals(1200, size.getHeight());
+    }
+
+    @Test
+    void givesNullForUnknownOrCutOffHeaders() throws IOException {
+        assertNull(ImageUtils.probeSize(new byte[0]));
+        assertNull(ImageUtils.probeSize("BOUNDARY".getBytes()));
+        assertNull(ImageUtils.probeSize(Arrays.copyOf(encode("png", 10, 10), 20)));
+        assertNull(ImageUtils.probeSize(Arrays.copyOf(encode("gif", 10, 10), 8)));
+        // cut off in the middle of the segments in front of the frame header
+        assertNull(ImageUtils.probeSize(Arrays.copyOf(encode("jpg", 10, 10), 30)));
+        // no marker where a segment should start
+        assertNull(ImageUtils.probeSize(new byte[]{(byte)0xFF, (byte)0xD8, 0x12, 0x34, 0x56, 0x78}));
+    }
+
+    private static byte[] encode(String format, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}